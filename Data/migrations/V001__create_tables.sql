@@ -0,0 +1,54 @@
+-- The library's tables, as first shipped in library.data.
+--
+-- IF NOT EXISTS lets a database created by earlier releases, which ran
+-- these statements on every start, adopt its existing tables as this
+-- version instead of failing.
+
+
+CREATE TABLE IF NOT EXISTS customer (
+    customerid integer DEFAULT 0 NOT NULL,
+    l_name character(15) NOT NULL,
+    f_name character(15),
+    city character(15),
+    CONSTRAINT customer_city CHECK ((((city = 'Wellington'::bpchar) OR (city = 'Upper Hutt'::bpchar)) OR (city = 'Lower Hutt'::bpchar) OR (city = 'Johnsonville'::bpchar))),
+    CONSTRAINT customer_customerid CHECK ((customerid >= 0)),
+    PRIMARY KEY(customerid)
+);
+
+CREATE TABLE IF NOT EXISTS book (
+    isbn integer DEFAULT 0 NOT NULL,
+    title character(60) NOT NULL,
+    edition_no smallint DEFAULT 1,
+    numofcop smallint DEFAULT 1 NOT NULL,
+    numleft smallint DEFAULT 1 NOT NULL,
+    CONSTRAINT book_edition_no CHECK ((edition_no > 0)),
+    CONSTRAINT book_isbn CHECK ((isbn >= 0)),
+    PRIMARY KEY(isbn)
+);
+
+CREATE TABLE IF NOT EXISTS author (
+    authorid integer DEFAULT 0 NOT NULL,
+    name character(15),
+    surname character(15) NOT NULL,
+    CONSTRAINT book_authorid CHECK ((authorid >= 0)),
+    PRIMARY KEY(authorid)
+);
+
+CREATE TABLE IF NOT EXISTS book_author (
+    isbn integer DEFAULT 0 NOT NULL references book(isbn) ON DELETE SET DEFAULT ON UPDATE CASCADE,
+    authorid integer DEFAULT 0 NOT NULL references author(authorid) ON DELETE SET DEFAULT ON UPDATE CASCADE,
+    authorseqno smallint DEFAULT 1,
+    CONSTRAINT book_author_authorseqno CHECK ((authorseqno > 0)),
+    CONSTRAINT book_author_authorid CHECK ((authorid >= 0)),
+    CONSTRAINT book_author_isbn CHECK ((isbn >= 0)),
+    PRIMARY KEY (isbn, authorid)
+);
+
+CREATE TABLE IF NOT EXISTS cust_book (
+    isbn integer DEFAULT 0 NOT NULL references book(isbn) ON DELETE NO ACTION ON UPDATE NO ACTION,
+    duedate date,
+    customerid integer DEFAULT 0 NOT NULL references customer(customerid) ON DELETE NO ACTION ON UPDATE NO ACTION,
+    CONSTRAINT cust_order_customerid CHECK ((customerid >= 0)),
+    CONSTRAINT cust_order_isbn CHECK ((isbn >= 0)),
+    PRIMARY KEY (isbn, customerid)
+);
@@ -0,0 +1,97 @@
+-- Each book's authors in AuthorSeqNo order, one row per ISBN.
+--
+-- The book views read author lists from here instead of joining
+-- Book_Author and Author and regrouping the rows. Triggers on book_author
+-- and author refresh only the ISBNs a statement touched, and deleting a
+-- book removes its row through the foreign key. Books without authors have
+-- no row. Safe to run again: the backfill at the end brings existing rows
+-- up to date.
+
+CREATE TABLE IF NOT EXISTS book_author_list (
+    isbn integer NOT NULL references book(isbn) ON DELETE CASCADE ON UPDATE CASCADE,
+    surnames text[] NOT NULL,
+    authorids integer[] NOT NULL,
+    PRIMARY KEY(isbn)
+);
+
+
+-- Recompute the author lists of the given books
+CREATE OR REPLACE FUNCTION refresh_book_author_list(isbns integer[]) RETURNS void AS $$
+BEGIN
+    INSERT INTO book_author_list (isbn, surnames, authorids)
+    SELECT ba.isbn,
+           ARRAY_AGG(RTRIM(a.surname) ORDER BY ba.authorseqno, ba.authorid),
+           ARRAY_AGG(ba.authorid ORDER BY ba.authorseqno, ba.authorid)
+    FROM book_author ba
+    JOIN author a ON a.authorid = ba.authorid
+    WHERE ba.isbn = ANY(isbns)
+    GROUP BY ba.isbn
+    ON CONFLICT (isbn) DO UPDATE SET surnames = EXCLUDED.surnames, authorids = EXCLUDED.authorids;
+
+    DELETE FROM book_author_list l
+    WHERE l.isbn = ANY(isbns)
+      AND NOT EXISTS (SELECT 1 FROM book_author ba WHERE ba.isbn = l.isbn);
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- Refresh the books named in a statement's inserted, updated or deleted book_author rows
+CREATE OR REPLACE FUNCTION book_author_list_on_insert() RETURNS trigger AS $$
+BEGIN
+    PERFORM refresh_book_author_list(ARRAY(SELECT DISTINCT isbn FROM new_rows));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION book_author_list_on_update() RETURNS trigger AS $$
+BEGIN
+    PERFORM refresh_book_author_list(ARRAY(SELECT isbn FROM new_rows UNION SELECT isbn FROM old_rows));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION book_author_list_on_delete() RETURNS trigger AS $$
+BEGIN
+    PERFORM refresh_book_author_list(ARRAY(SELECT DISTINCT isbn FROM old_rows));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Refresh the books of authors whose surname changed
+CREATE OR REPLACE FUNCTION book_author_list_on_author_update() RETURNS trigger AS $$
+BEGIN
+    PERFORM refresh_book_author_list(ARRAY(
+        SELECT DISTINCT ba.isbn
+        FROM new_rows n
+        JOIN old_rows o ON o.authorid = n.authorid
+        JOIN book_author ba ON ba.authorid = n.authorid
+        WHERE n.surname IS DISTINCT FROM o.surname));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+
+DROP TRIGGER IF EXISTS book_author_list_insert ON book_author;
+CREATE TRIGGER book_author_list_insert AFTER INSERT ON book_author
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION book_author_list_on_insert();
+
+DROP TRIGGER IF EXISTS book_author_list_update ON book_author;
+CREATE TRIGGER book_author_list_update AFTER UPDATE ON book_author
+    REFERENCING NEW TABLE AS new_rows OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION book_author_list_on_update();
+
+DROP TRIGGER IF EXISTS book_author_list_delete ON book_author;
+CREATE TRIGGER book_author_list_delete AFTER DELETE ON book_author
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION book_author_list_on_delete();
+
+-- Deleting an author or changing its ID updates book_author through the foreign key, so only renames need this
+DROP TRIGGER IF EXISTS book_author_list_author_update ON author;
+CREATE TRIGGER book_author_list_author_update AFTER UPDATE ON author
+    REFERENCING NEW TABLE AS new_rows OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION book_author_list_on_author_update();
+
+
+-- Bring every book up to date
+SELECT refresh_book_author_list(ARRAY(SELECT isbn FROM book));
@@ -0,0 +1,113 @@
+-- Full-text search over book titles and author names.
+--
+-- Each book carries a search document: its title words, weighted A, and
+-- the first names and surnames of its authors, weighted B. The words are
+-- kept as written ('simple' configuration) so that a prefix of a name or
+-- title word matches. A row trigger on book keeps the document in step with
+-- the title, and statement triggers on book_author and author refresh only
+-- the books a statement touched. A GIN index serves the text match and a
+-- trigram index on the title catches misspelt titles. Safe to run again:
+-- the backfill at the end brings existing rows up to date.
+
+CREATE EXTENSION IF NOT EXISTS pg_trgm;
+
+ALTER TABLE book ADD COLUMN IF NOT EXISTS search tsvector NOT NULL DEFAULT ''::tsvector;
+
+
+-- The search document for a book with the given title
+CREATE OR REPLACE FUNCTION book_search_document(book_isbn integer, book_title text) RETURNS tsvector AS $$
+    SELECT setweight(to_tsvector('simple', COALESCE(book_title, '')), 'A')
+        || setweight(to_tsvector('simple', COALESCE(
+               (SELECT string_agg(COALESCE(RTRIM(a.name), '') || ' ' || RTRIM(a.surname), ' ')
+                FROM book_author ba
+                JOIN author a ON a.authorid = ba.authorid
+                WHERE ba.isbn = book_isbn), '')), 'B');
+$$ LANGUAGE sql STABLE;
+
+-- Recompute the search documents of the given books
+CREATE OR REPLACE FUNCTION refresh_book_search(isbns integer[]) RETURNS void AS $$
+BEGIN
+    UPDATE book b
+    SET search = book_search_document(b.isbn, b.title)
+    WHERE b.isbn = ANY(isbns)
+      AND b.search IS DISTINCT FROM book_search_document(b.isbn, b.title);
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- Set the document of a book as it is inserted or retitled
+CREATE OR REPLACE FUNCTION book_search_on_book() RETURNS trigger AS $$
+BEGIN
+    NEW.search := book_search_document(NEW.isbn, NEW.title);
+    RETURN NEW;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Refresh the books named in a statement's inserted, updated or deleted book_author rows
+CREATE OR REPLACE FUNCTION book_search_on_insert() RETURNS trigger AS $$
+BEGIN
+    PERFORM refresh_book_search(ARRAY(SELECT DISTINCT isbn FROM new_rows));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION book_search_on_update() RETURNS trigger AS $$
+BEGIN
+    PERFORM refresh_book_search(ARRAY(SELECT isbn FROM new_rows UNION SELECT isbn FROM old_rows));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION book_search_on_delete() RETURNS trigger AS $$
+BEGIN
+    PERFORM refresh_book_search(ARRAY(SELECT DISTINCT isbn FROM old_rows));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Refresh the books of authors whose name or surname changed
+CREATE OR REPLACE FUNCTION book_search_on_author_update() RETURNS trigger AS $$
+BEGIN
+    PERFORM refresh_book_search(ARRAY(
+        SELECT DISTINCT ba.isbn
+        FROM new_rows n
+        JOIN old_rows o ON o.authorid = n.authorid
+        JOIN book_author ba ON ba.authorid = n.authorid
+        WHERE n.name IS DISTINCT FROM o.name OR n.surname IS DISTINCT FROM o.surname));
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+
+-- Loans only change the copy counts, so only inserts and title changes recompute the document here
+DROP TRIGGER IF EXISTS book_search_book ON book;
+CREATE TRIGGER book_search_book BEFORE INSERT OR UPDATE OF title ON book
+    FOR EACH ROW EXECUTE FUNCTION book_search_on_book();
+
+DROP TRIGGER IF EXISTS book_search_insert ON book_author;
+CREATE TRIGGER book_search_insert AFTER INSERT ON book_author
+    REFERENCING NEW TABLE AS new_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION book_search_on_insert();
+
+DROP TRIGGER IF EXISTS book_search_update ON book_author;
+CREATE TRIGGER book_search_update AFTER UPDATE ON book_author
+    REFERENCING NEW TABLE AS new_rows OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION book_search_on_update();
+
+DROP TRIGGER IF EXISTS book_search_delete ON book_author;
+CREATE TRIGGER book_search_delete AFTER DELETE ON book_author
+    REFERENCING OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION book_search_on_delete();
+
+DROP TRIGGER IF EXISTS book_search_author_update ON author;
+CREATE TRIGGER book_search_author_update AFTER UPDATE ON author
+    REFERENCING NEW TABLE AS new_rows OLD TABLE AS old_rows
+    FOR EACH STATEMENT EXECUTE FUNCTION book_search_on_author_update();
+
+
+CREATE INDEX IF NOT EXISTS book_search_idx ON book USING gin (search);
+CREATE INDEX IF NOT EXISTS book_title_trgm_idx ON book USING gin ((title::text) gin_trgm_ops);
+
+
+-- Bring every book up to date
+SELECT refresh_book_search(ARRAY(SELECT isbn FROM book));
@@ -0,0 +1,19 @@
+-- Secondary indexes for the queries that filter on a column other than the
+-- leading primary key column: a customer's loans and loan counts
+-- (cust_book.customerid), an author's books (book_author.authorid) and
+-- loans by due date (cust_book.duedate). Without them each of these scans
+-- the whole table.
+--
+-- CONCURRENTLY builds each index without blocking loans and returns while
+-- it runs, so this script runs outside a transaction, a statement at a
+-- time. A build that fails part way leaves an invalid index behind, so each
+-- index is dropped first and the script can simply be run again.
+
+DROP INDEX CONCURRENTLY IF EXISTS cust_book_customerid_idx;
+CREATE INDEX CONCURRENTLY cust_book_customerid_idx ON cust_book (customerid);
+
+DROP INDEX CONCURRENTLY IF EXISTS book_author_authorid_idx;
+CREATE INDEX CONCURRENTLY book_author_authorid_idx ON book_author (authorid);
+
+DROP INDEX CONCURRENTLY IF EXISTS cust_book_duedate_idx;
+CREATE INDEX CONCURRENTLY cust_book_duedate_idx ON cust_book (duedate);
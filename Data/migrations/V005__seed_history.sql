@@ -0,0 +1,9 @@
+-- The checksum of each seed data file as last loaded, so startup can skip
+-- reloading a file that has not changed.
+
+CREATE TABLE IF NOT EXISTS seed_history (
+    name text NOT NULL,
+    checksum text NOT NULL,
+    loaded_at timestamp with time zone NOT NULL DEFAULT now(),
+    PRIMARY KEY(name)
+);
@@ -0,0 +1,15 @@
+-- Let bulk imports defer foreign key checks to commit.
+--
+-- BulkCopy runs SET CONSTRAINTS ALL DEFERRED when asked to defer checks,
+-- which only affects constraints declared DEFERRABLE. These are the
+-- foreign keys rows are imported against: book_author and cust_book to
+-- their books, authors and customers, and the author lists the book_author
+-- triggers write. INITIALLY IMMEDIATE keeps every other transaction checked
+-- per statement as before. Referential actions such as ON DELETE SET
+-- DEFAULT still run immediately.
+
+ALTER TABLE book_author ALTER CONSTRAINT book_author_isbn_fkey DEFERRABLE INITIALLY IMMEDIATE;
+ALTER TABLE book_author ALTER CONSTRAINT book_author_authorid_fkey DEFERRABLE INITIALLY IMMEDIATE;
+ALTER TABLE cust_book ALTER CONSTRAINT cust_book_isbn_fkey DEFERRABLE INITIALLY IMMEDIATE;
+ALTER TABLE cust_book ALTER CONSTRAINT cust_book_customerid_fkey DEFERRABLE INITIALLY IMMEDIATE;
+ALTER TABLE book_author_list ALTER CONSTRAINT book_author_list_isbn_fkey DEFERRABLE INITIALLY IMMEDIATE;
@@ -0,0 +1,33 @@
+-- Stop concurrent author changes to one book losing an update to its
+-- author list.
+--
+-- Each book_author trigger aggregated the list from its own snapshot, so
+-- when two transactions changed the same book's authors, the one to commit
+-- last could write a list that missed the other's rows. Locking the books
+-- first makes a second refresh wait for the first transaction to finish,
+-- and its aggregate, a new statement, then sees the first one's rows. The
+-- lock is FOR NO KEY UPDATE rather than FOR UPDATE because the writers
+-- already hold FOR KEY SHARE on the same books from their foreign key
+-- checks. FOR UPDATE would conflict with that, so two such writers would
+-- deadlock. Books are locked in ISBN order so that multi-book statements
+-- cannot deadlock either.
+
+CREATE OR REPLACE FUNCTION refresh_book_author_list(isbns integer[]) RETURNS void AS $$
+BEGIN
+    PERFORM 1 FROM book WHERE isbn = ANY(isbns) ORDER BY isbn FOR NO KEY UPDATE;
+
+    INSERT INTO book_author_list (isbn, surnames, authorids)
+    SELECT ba.isbn,
+           ARRAY_AGG(RTRIM(a.surname) ORDER BY ba.authorseqno, ba.authorid),
+           ARRAY_AGG(ba.authorid ORDER BY ba.authorseqno, ba.authorid)
+    FROM book_author ba
+    JOIN author a ON a.authorid = ba.authorid
+    WHERE ba.isbn = ANY(isbns)
+    GROUP BY ba.isbn
+    ON CONFLICT (isbn) DO UPDATE SET surnames = EXCLUDED.surnames, authorids = EXCLUDED.authorids;
+
+    DELETE FROM book_author_list l
+    WHERE l.isbn = ANY(isbns)
+      AND NOT EXISTS (SELECT 1 FROM book_author ba WHERE ba.isbn = l.isbn);
+END;
+$$ LANGUAGE plpgsql;
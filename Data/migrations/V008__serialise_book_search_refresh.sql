@@ -0,0 +1,19 @@
+-- Stop concurrent author changes to one book leaving its search document
+-- stale.
+--
+-- As with the author lists in V007, each book_author trigger rebuilt the
+-- document from its own snapshot, so the transaction committing last could
+-- overwrite the other's authors. The books are locked first, in ISBN order
+-- and FOR NO KEY UPDATE, so the document is read after any competing
+-- writer has committed.
+
+CREATE OR REPLACE FUNCTION refresh_book_search(isbns integer[]) RETURNS void AS $$
+BEGIN
+    PERFORM 1 FROM book WHERE isbn = ANY(isbns) ORDER BY isbn FOR NO KEY UPDATE;
+
+    UPDATE book b
+    SET search = book_search_document(b.isbn, b.title)
+    WHERE b.isbn = ANY(isbns)
+      AND b.search IS DISTINCT FROM book_search_document(b.isbn, b.title);
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,432 @@
+import java.io.FileReader;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulates circulation desks borrowing, returning and looking up books.
+ *
+ * Requests arrive at a fixed average rate whether or not earlier requests
+ * have finished (an open loop), and queue for the next free desk. Latency is
+ * measured from when a request was due to start, so time spent queueing
+ * behind slow requests is counted. Borrows and lookups pick ISBNs with a
+ * Zipfian skew towards popular titles. While the load runs, pg_locks is
+ * sampled to estimate how long sessions spend waiting for row locks.
+ *
+ * Usage, from Library/bench after compiling the sources in Library/src:
+ *
+ *   java -cp .:../src:../lib/postgresql-42.7.3.jar
+ *       -Dlibrary.db.url=jdbc:postgresql://localhost/library CirculationLoad
+ *       [--desks n] [--rate requests/s] [--duration seconds] [--mix borrow=40,return=40,lookup=20]
+ *       [--zipf exponent] [--mode interactive|single|optimistic] [--hold ms] [--seed n] [--data file]
+ *
+ * In interactive mode, --hold is how long each simulated user takes to click
+ * OK while the customer and book rows are locked. The database login is read
+ * from LIBRARY_DB_USER and LIBRARY_DB_PASSWORD.
+ */
+public class CirculationLoad {
+    private static final long LOCK_SAMPLE_MILLIS = 100;
+
+    private static final String LOCK_WAITERS_QUERY = "SELECT COUNT(DISTINCT l.pid) AS Waiters FROM pg_locks l"
+            + " JOIN pg_stat_activity a ON a.pid = l.pid WHERE NOT l.granted AND a.datname = current_database()";
+
+    private final ConnectionRouter router;
+    private final BookModel bookModel;
+    private final LoaningModel loaningModel;
+    private final LoanMode mode;
+    private final Random random;
+
+    // Popularity order of ISBNs and the cumulative Zipfian probability of each rank
+    private int[] isbnsByRank;
+    private double[] cumulative;
+    private int[] customerIDs;
+
+    // Loans that exist now, and those a return may pick
+    private final Set<Long> outstanding = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<long[]> returnable = new ConcurrentLinkedQueue<>();
+
+    private final Map<String, Recorder> recorders = new LinkedHashMap<>();
+    private final AtomicLong noCopiesLeft = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final Map<String, AtomicLong> abortedByState = new ConcurrentHashMap<>();
+    private final AtomicInteger maxQueued = new AtomicInteger();
+
+    private long lockSamples;
+    private long lockWaiterSamples;
+    private long maxLockWaiters;
+
+    public CirculationLoad(ConnectionRouter router, LoanMode mode, long holdMillis, long seed) {
+        this.router = router;
+        CatalogueCache cache = new CatalogueCache(LibraryService.CACHE_SIZE);
+        LookupIndexes lookups = new LookupIndexes();
+        this.bookModel = new BookModel(null, router, cache, lookups);
+        this.loaningModel = new LoaningModel(null, router, cache, lookups);
+        this.mode = mode;
+        this.random = new Random(seed);
+        loaningModel.setPauseHandler(() -> {
+            if (holdMillis > 0) {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(holdMillis));
+            }
+            return javax.swing.JOptionPane.OK_OPTION;
+        });
+        for (String operation : new String[] { "borrow", "return", "lookup" }) {
+            recorders.put(operation, new Recorder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int desks = Integer.parseInt(options.getOrDefault("desks", "8"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "50"));
+        long durationMillis = Long.parseLong(options.getOrDefault("duration", "60")) * 1000;
+        double zipf = Double.parseDouble(options.getOrDefault("zipf", "1.0"));
+        long holdMillis = Long.parseLong(options.getOrDefault("hold", "0"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        LoanMode mode = parseMode(options.getOrDefault("mode", "interactive"));
+        int[] mix = parseMix(options.getOrDefault("mix", "borrow=40,return=40,lookup=20"));
+
+        String userid = System.getenv("LIBRARY_DB_USER");
+        String password = System.getenv("LIBRARY_DB_PASSWORD");
+        if (userid == null || password == null) {
+            System.err.println("Set LIBRARY_DB_USER and LIBRARY_DB_PASSWORD to the database login");
+            System.exit(2);
+        }
+
+        // One connection per desk plus one for the lock sampler, in each of the read-write and read-only pools
+        System.setProperty("library.pool.size", String.valueOf(desks + 1));
+        ConnectionRouter router = LibraryUtils.openConnections(userid, password);
+        try {
+            if (options.containsKey("data")) {
+                try (Reader script = new FileReader(options.get("data"));
+                        Connection conn = router.getConnection()) {
+                    ModelBenchmark.migrate(conn);
+                    System.out.println(new SqlScriptLoader(conn).load(script));
+                }
+            }
+            CirculationLoad load = new CirculationLoad(router, mode, holdMillis, seed);
+            load.prepare(zipf);
+            load.run(desks, rate, durationMillis, mix);
+            load.printReport(durationMillis);
+        } finally {
+            router.close();
+        }
+    }
+
+    // Read the books, customers and current loans, and rank the books by popularity
+    private void prepare(double zipfExponent) throws SQLException {
+        List<Integer> isbns = new ArrayList<>();
+        for (BookRecord book : bookModel.findCatalogue()) {
+            isbns.add(book.getIsbn());
+        }
+        Collections.shuffle(isbns, random);
+        isbnsByRank = isbns.stream().mapToInt(Integer::intValue).toArray();
+
+        cumulative = new double[isbnsByRank.length];
+        double total = 0;
+        for (int rank = 0; rank < cumulative.length; rank++) {
+            total += 1 / Math.pow(rank + 1, zipfExponent);
+            cumulative[rank] = total;
+        }
+        for (int rank = 0; rank < cumulative.length; rank++) {
+            cumulative[rank] /= total;
+        }
+
+        try (Connection conn = router.getReadConnection()) {
+            List<Integer> customers = new ArrayList<>();
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT CustomerID FROM Customer WHERE CustomerID > 0");
+                    ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    customers.add(rs.getInt("CustomerID"));
+                }
+            }
+            customerIDs = customers.stream().mapToInt(Integer::intValue).toArray();
+
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT CustomerID, ISBN FROM Cust_Book");
+                    ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    long[] loan = { rs.getInt("CustomerID"), rs.getInt("ISBN") };
+                    outstanding.add(key(loan[0], loan[1]));
+                    returnable.add(loan);
+                }
+            }
+        }
+        if (isbnsByRank.length == 0 || customerIDs.length == 0) {
+            throw new IllegalStateException("The database must contain books and customers");
+        }
+        System.out.printf("%d books, %d customers, %d loans outstanding%n", isbnsByRank.length,
+                customerIDs.length, outstanding.size());
+    }
+
+    // Generate arrivals for the duration, then wait for the desks to finish the queue
+    private void run(int desks, double rate, long durationMillis, int[] mix) throws Exception {
+        ThreadPoolExecutor deskPool = new ThreadPoolExecutor(desks, desks, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "desk");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        Connection samplerConn = router.getReadConnection();
+        sampler.scheduleAtFixedRate(() -> sampleLockWaiters(samplerConn), 0, LOCK_SAMPLE_MILLIS,
+                TimeUnit.MILLISECONDS);
+
+        // Poisson arrivals: exponentially distributed gaps with the requested mean rate
+        int mixTotal = mix[0] + mix[1] + mix[2];
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long next = start;
+        while (next < end) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            long intendedStart = next;
+            int choice = random.nextInt(mixTotal);
+            String operation = choice < mix[0] ? "borrow" : choice < mix[0] + mix[1] ? "return" : "lookup";
+            deskPool.execute(() -> perform(operation, intendedStart));
+            maxQueued.accumulateAndGet(deskPool.getQueue().size(), Math::max);
+            next += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9);
+        }
+
+        deskPool.shutdown();
+        if (!deskPool.awaitTermination(5, TimeUnit.MINUTES)) {
+            System.err.println("Desks did not finish their queue within 5 minutes");
+            deskPool.shutdownNow();
+        }
+        sampler.shutdown();
+        sampler.awaitTermination(1, TimeUnit.SECONDS);
+        samplerConn.close();
+    }
+
+    // Run one request at a desk and record its latency from its intended start
+    private void perform(String operation, long intendedStart) {
+        boolean done;
+        try {
+            switch (operation) {
+                case "borrow":
+                    done = borrow();
+                    break;
+                case "return":
+                    done = giveBack();
+                    break;
+                default:
+                    bookModel.findBook(pickISBN());
+                    done = true;
+                    break;
+            }
+        } catch (SQLException e) {
+            String state = e.getSQLState() == null ? "unknown" : e.getSQLState();
+            abortedByState.computeIfAbsent(state, s -> new AtomicLong()).incrementAndGet();
+            done = false;
+        }
+        if (done) {
+            recorders.get(operation).record(System.nanoTime() - intendedStart);
+        }
+    }
+
+    // Borrow a popular book for a random customer who does not already have it
+    private boolean borrow() throws SQLException {
+        int isbn = pickISBN();
+        for (int attempt = 0; attempt < 4; attempt++) {
+            int customerID = customerIDs[ThreadLocalRandom.current().nextInt(customerIDs.length)];
+            long loanKey = key(customerID, isbn);
+            if (outstanding.add(loanKey)) {
+                return borrow(isbn, customerID, loanKey);
+            }
+        }
+        skipped.incrementAndGet();
+        return false;
+    }
+
+    // Borrow a book for a customer, having reserved the loan key
+    private boolean borrow(int isbn, int customerID, long loanKey) throws SQLException {
+        try {
+            LoanResult result = loaningModel.borrow(mode, isbn, customerID, java.sql.Date.valueOf("2030-01-01"));
+            if (result.getOutcome() == LoanResult.Outcome.BORROWED) {
+                returnable.add(new long[] { customerID, isbn });
+            } else {
+                outstanding.remove(loanKey);
+                noCopiesLeft.incrementAndGet();
+            }
+            return true;
+        } catch (SQLException e) {
+            outstanding.remove(loanKey);
+            throw e;
+        }
+    }
+
+    // Return the oldest loan still outstanding
+    private boolean giveBack() throws SQLException {
+        long[] loan = returnable.poll();
+        if (loan == null) {
+            skipped.incrementAndGet();
+            return false;
+        }
+        try {
+            loaningModel.returnLoan(mode, (int) loan[1], (int) loan[0]);
+            outstanding.remove(key(loan[0], loan[1]));
+            return true;
+        } catch (SQLException e) {
+            returnable.add(loan);
+            throw e;
+        }
+    }
+
+    // Pick an ISBN by Zipfian rank
+    private int pickISBN() {
+        int rank = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+        if (rank < 0) {
+            rank = -rank - 1;
+        }
+        return isbnsByRank[Math.min(rank, isbnsByRank.length - 1)];
+    }
+
+    // Count sessions in this database waiting for a lock
+    private void sampleLockWaiters(Connection conn) {
+        try (PreparedStatement stmt = conn.prepareStatement(LOCK_WAITERS_QUERY);
+                ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            long waiters = rs.getLong("Waiters");
+            lockSamples++;
+            lockWaiterSamples += waiters;
+            maxLockWaiters = Math.max(maxLockWaiters, waiters);
+        } catch (SQLException e) {
+            System.err.println("Lock sample failed: " + e.getMessage());
+        }
+    }
+
+    private void printReport(long durationMillis) {
+        System.out.println();
+        System.out.printf("Mode %s, %.1f s%n", mode, durationMillis / 1000.0);
+        long completed = 0;
+        System.out.printf("%-8s %9s %9s %9s %9s %9s %9s%n", "", "count", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms",
+                "max ms");
+        for (Map.Entry<String, Recorder> entry : recorders.entrySet()) {
+            long[] latencies = entry.getValue().sorted();
+            completed += latencies.length;
+            System.out.printf("%-8s %9d %9.2f %9.2f %9.2f %9.2f %9.2f%n", entry.getKey(), latencies.length,
+                    percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99),
+                    percentile(latencies, 99.9), percentile(latencies, 100));
+        }
+        System.out.printf("Throughput: %.1f requests/s%n", completed * 1000.0 / durationMillis);
+        System.out.printf("No copies left: %d, skipped (nothing to return or no free customer): %d, "
+                + "most requests queued: %d%n", noCopiesLeft.get(), skipped.get(), maxQueued.get());
+
+        long aborted = abortedByState.values().stream().mapToLong(AtomicLong::get).sum();
+        System.out.printf("Aborted transactions: %d %s%n", aborted, new TreeMap<>(abortedByState));
+
+        // Each sample stands for the sampling interval, so waiters x interval approximates total wait
+        if (lockSamples > 0) {
+            System.out.printf("Lock wait: about %.1f s in total, %.2f sessions waiting on average, %d at most%n",
+                    lockWaiterSamples * LOCK_SAMPLE_MILLIS / 1000.0, (double) lockWaiterSamples / lockSamples,
+                    maxLockWaiters);
+        }
+    }
+
+    // Latency in milliseconds at the given percentile of sorted nanosecond latencies
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1e6;
+    }
+
+    private static long key(long customerID, long isbn) {
+        return customerID << 32 | isbn;
+    }
+
+    private static LoanMode parseMode(String mode) {
+        switch (mode) {
+            case "single":
+                return LoanMode.SINGLE_TRIP;
+            case "optimistic":
+                return LoanMode.OPTIMISTIC;
+            case "interactive":
+                return LoanMode.INTERACTIVE;
+            default:
+                throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+    }
+
+    // Read borrow=n,return=n,lookup=n weights
+    private static int[] parseMix(String mix) {
+        int[] weights = new int[3];
+        for (String part : mix.split(",")) {
+            String[] pair = part.split("=");
+            int weight = Integer.parseInt(pair[1]);
+            switch (pair[0]) {
+                case "borrow":
+                    weights[0] = weight;
+                    break;
+                case "return":
+                    weights[1] = weight;
+                    break;
+                case "lookup":
+                    weights[2] = weight;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation in mix: " + pair[0]);
+            }
+        }
+        if (weights[0] + weights[1] + weights[2] <= 0) {
+            throw new IllegalArgumentException("The mix needs at least one positive weight");
+        }
+        return weights;
+    }
+
+    // Read --name value pairs
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value, found: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * Collects latencies for one kind of request.
+     */
+    private static class Recorder {
+        private long[] latencies = new long[1024];
+        private int count;
+
+        private synchronized void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+
+        private synchronized long[] sorted() {
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,491 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes a synthetic library of any size, the same for the same seed.
+ *
+ * Books, authors and customers are numbered from 1, beside the default
+ * entries numbered 0 that the application expects. Each book has one to four
+ * authors in AuthorSeqNo order, drawn with a Zipfian skew so a few authors
+ * write many books. Books also have a Zipfian popularity: popular titles have
+ * more copies and are far more likely to be out on loan. The share of all
+ * copies on loan is set by --loan-ratio, and each book's NumLeft is its
+ * copies less its loans. Customers only live in the cities the
+ * customer_city check allows, and due dates fall three weeks either side of
+ * --today, so some loans are overdue.
+ *
+ * Usage, from Library/bench:
+ *
+ *   java -cp .:../src DatasetGenerator [--scale factor] [--books n] [--authors n] [--customers n]
+ *       [--loan-ratio fraction] [--zipf exponent] [--seed n] [--today yyyy-mm-dd]
+ *       [--format sql|csv|both] [--out directory]
+ *
+ * Scale 1 is 100,000 books, 40,000 authors and 200,000 customers, and the
+ * counts can also be given one by one. The sql format writes library.data as
+ * single-row INSERTs, which SqlScriptLoader folds into batches, so it can be
+ * passed to ModelBenchmark and CirculationLoad with --data. They create the
+ * tables from Data/migrations before loading it. The csv format writes one
+ * <table>.csv per table for BulkCopy, to import from the File menu into
+ * empty tables. That is the faster way to load tens of millions of rows.
+ */
+public class DatasetGenerator {
+    private static final int BOOKS_PER_SCALE = 100_000;
+    private static final int AUTHORS_PER_SCALE = 40_000;
+    private static final int CUSTOMERS_PER_SCALE = 200_000;
+
+    // Cities allowed by the customer_city check
+    private static final String[] CITIES = { "Wellington", "Upper Hutt", "Lower Hutt", "Johnsonville" };
+
+    // Chance of a book having one, two, three or four authors
+    private static final double[] AUTHOR_COUNT_ODDS = { 0.70, 0.90, 0.97, 1.0 };
+
+    // Loans fall due up to this many days either side of today
+    private static final int DUE_DATE_SPREAD_DAYS = 21;
+
+    private static final int TITLE_LENGTH = 60;
+
+    private static final String[] FIRST_NAMES = { "James", "Mary", "Wiremu", "Aroha", "Peter", "Linda", "Ravi",
+            "Priya", "Chen", "Mei", "David", "Sarah", "Tama", "Mere", "Michael", "Emma", "Hemi", "Ana", "John",
+            "Olivia", "Sione", "Losa", "Paul", "Grace", "Daniel", "Sophie", "Amit", "Anjali", "Thomas", "Charlotte",
+            "Wei", "Jing", "Andrew", "Ruby", "Matiu", "Kiri", "George", "Isla", "Samuel", "Hana" };
+
+    private static final String[] SURNAMES = { "Smith", "Williams", "Brown", "Wilson", "Taylor", "Jones", "Ngata",
+            "Walker", "Anderson", "Thompson", "Harris", "Martin", "Te Whata", "Campbell", "Clarke", "Robinson",
+            "Wright", "Young", "Patel", "Singh", "Kumar", "Wang", "Li", "Zhang", "Chen", "Nguyen", "Kim",
+            "Faleolo", "Tupou", "Morgan", "King", "Hughes", "Scott", "Stewart", "Murray", "O'Connor", "O'Brien",
+            "Kelly", "Ryan", "Parata", "Tuhoe", "Mitchell", "Edwards", "Turner", "Hall", "Evans", "Moore", "White",
+            "Lee", "Green", "Baker", "Adams", "Nelson", "Hill", "Cooper", "Ward", "Bell", "Reid", "Fraser", "Watson" };
+
+    private static final String[] ADJECTIVES = { "Practical", "Modern", "Advanced", "Applied", "Essential",
+            "Distributed", "Concurrent", "Relational", "Functional", "Introductory", "Principles of",
+            "Foundations of", "Readings in", "Fundamentals of", "Elements of", "Topics in", "Handbook of",
+            "A Guide to", "Building", "Designing", "Understanding", "Mastering", "Scalable", "Secure" };
+
+    private static final String[] SUBJECTS = { "Database", "Data", "Query", "Transaction", "Storage", "Index",
+            "Network", "Operating", "Compiler", "Software", "Systems", "Cloud", "Java", "SQL", "Object",
+            "Information", "Knowledge", "Search", "Stream", "Graph", "Parallel", "Embedded", "Web", "Security" };
+
+    private static final String[] NOUNS = { "Systems", "Design", "Processing", "Management", "Models",
+            "Engineering", "Architecture", "Algorithms", "Programming", "Optimisation", "Recovery", "Theory",
+            "Warehouses", "Analytics", "Methods", "Structures", "Languages", "Patterns", "Performance", "Tuning" };
+
+    private static final String[] SUBTITLES = { "", "", "", "", ": A Practical Approach", ": Second Thoughts",
+            ": The Next Great Wave", ": Theory and Practice", " for Engineers", " in Action", ": Case Studies",
+            " Explained", ": An Introduction", " at Scale" };
+
+    private final int books;
+    private final int authors;
+    private final int customers;
+    private final double loanRatio;
+    private final double zipfExponent;
+    private final long seed;
+    private final LocalDate today;
+
+    // Popularity rank of each book, by ISBN - 1, and its copies and loans
+    private int[] rankOfBook;
+    private byte[] copies;
+    private byte[] loans;
+
+    // Cumulative Zipfian probability of each author rank, and the author ID at each rank
+    private double[] authorCumulative;
+    private int[] authorsByRank;
+
+    public DatasetGenerator(int books, int authors, int customers, double loanRatio, double zipfExponent, long seed,
+            LocalDate today) {
+        this.books = books;
+        this.authors = authors;
+        this.customers = customers;
+        this.loanRatio = loanRatio;
+        this.zipfExponent = zipfExponent;
+        this.seed = seed;
+        this.today = today;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        double scale = Double.parseDouble(options.getOrDefault("scale", "1"));
+        int books = getCount(options, "books", BOOKS_PER_SCALE * scale);
+        int authors = getCount(options, "authors", AUTHORS_PER_SCALE * scale);
+        int customers = getCount(options, "customers", CUSTOMERS_PER_SCALE * scale);
+        double loanRatio = Double.parseDouble(options.getOrDefault("loan-ratio", "0.25"));
+        double zipf = Double.parseDouble(options.getOrDefault("zipf", "1.0"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        LocalDate today = LocalDate.parse(options.getOrDefault("today", "2025-01-01"));
+        String format = options.getOrDefault("format", "sql");
+        Path out = Paths.get(options.getOrDefault("out", "generated"));
+        if (loanRatio < 0 || loanRatio > 1) {
+            throw new IllegalArgumentException("Loan ratio must be between 0 and 1: " + loanRatio);
+        }
+        if (!format.equals("sql") && !format.equals("csv") && !format.equals("both")) {
+            throw new IllegalArgumentException("Format must be sql, csv or both: " + format);
+        }
+
+        DatasetGenerator generator = new DatasetGenerator(books, authors, customers, loanRatio, zipf, seed, today);
+        long started = System.nanoTime();
+        Map<String, Long> rowsByTable = generator.write(out, !format.equals("csv"), !format.equals("sql"));
+        System.out.printf(Locale.ROOT, "Wrote %s in %.1f s to %s%n", rowsByTable,
+                (System.nanoTime() - started) / 1e9, out.toAbsolutePath());
+    }
+
+    // Write every table, in foreign key order, returning the rows written to each
+    public Map<String, Long> write(Path out, boolean sql, boolean csv) throws IOException {
+        Files.createDirectories(out);
+        planBooks();
+        planAuthors();
+
+        Map<String, Long> rowsByTable = new LinkedHashMap<>();
+        try (Writer sqlOut = sql ? newWriter(out.resolve("library.data")) : null) {
+            Path csvDirectory = csv ? out : null;
+            rowsByTable.put("customer", writeCustomers(new TableWriter("customer",
+                    "customerid, l_name, f_name, city", sqlOut, csvDirectory)));
+            rowsByTable.put("book", writeBooks(new TableWriter("book",
+                    "isbn, title, edition_no, numofcop, numleft", sqlOut, csvDirectory)));
+            rowsByTable.put("author", writeAuthors(new TableWriter("author",
+                    "authorid, name, surname", sqlOut, csvDirectory)));
+            rowsByTable.put("book_author", writeBookAuthors(new TableWriter("book_author",
+                    "isbn, authorid, authorseqno", sqlOut, csvDirectory)));
+            rowsByTable.put("cust_book", writeLoans(new TableWriter("cust_book",
+                    "isbn, duedate, customerid", sqlOut, csvDirectory)));
+
+            // Give the planner statistics for the new rows before anything queries them
+            if (sqlOut != null) {
+                sqlOut.write("ANALYZE;\n");
+            }
+        }
+        return rowsByTable;
+    }
+
+    // Rank books by popularity, then give each its copies and decide how many are out on loan
+    private void planBooks() {
+        Random random = new Random(seed);
+        rankOfBook = shuffledRanks(books, random);
+
+        // Popular books are stocked more deeply
+        copies = new byte[books];
+        long totalCopies = 0;
+        for (int book = 0; book < books; book++) {
+            int extra = rankOfBook[book] < books / 100 ? random.nextInt(8) : 0;
+            copies[book] = (byte) (1 + random.nextInt(3) + extra);
+            totalCopies += copies[book];
+        }
+
+        // Each copy is out with a chance proportional to its book's Zipfian weight, capped at certain,
+        // with the proportion chosen by bisection so that the expected loans meet the loan ratio
+        double[] weights = new double[books];
+        for (int book = 0; book < books; book++) {
+            weights[book] = 1 / Math.pow(rankOfBook[book] + 1, zipfExponent);
+        }
+        double target = loanRatio * totalCopies;
+        double low = 0;
+        double high = 1;
+        while (expectedLoans(weights, high) < target && high < 1e18) {
+            high *= 2;
+        }
+        for (int i = 0; i < 60; i++) {
+            double mid = (low + high) / 2;
+            if (expectedLoans(weights, mid) < target) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+
+        loans = new byte[books];
+        for (int book = 0; book < books; book++) {
+            double chance = Math.min(1, high * weights[book]);
+            int out = 0;
+            for (int copy = 0; copy < copies[book]; copy++) {
+                if (random.nextDouble() < chance) {
+                    out++;
+                }
+            }
+
+            // A customer holds at most one copy of a book
+            loans[book] = (byte) Math.min(out, customers);
+        }
+    }
+
+    private double expectedLoans(double[] weights, double scale) {
+        double expected = 0;
+        for (int book = 0; book < books; book++) {
+            expected += copies[book] * Math.min(1, scale * weights[book]);
+        }
+        return expected;
+    }
+
+    // Rank authors by how prolific they are
+    private void planAuthors() {
+        Random random = new Random(seed + 1);
+        int[] rankOfAuthor = shuffledRanks(authors, random);
+        authorsByRank = new int[authors];
+        for (int author = 0; author < authors; author++) {
+            authorsByRank[rankOfAuthor[author]] = author + 1;
+        }
+        authorCumulative = new double[authors];
+        double total = 0;
+        for (int rank = 0; rank < authors; rank++) {
+            total += 1 / Math.pow(rank + 1, zipfExponent);
+            authorCumulative[rank] = total;
+        }
+        for (int rank = 0; rank < authors; rank++) {
+            authorCumulative[rank] /= total;
+        }
+    }
+
+    private long writeCustomers(TableWriter table) throws IOException {
+        Random random = new Random(seed + 2);
+        try (TableWriter rows = table) {
+            rows.integer(0).text("Default").text("Customer").none().endRow();
+            for (int customer = 1; customer <= customers; customer++) {
+                rows.integer(customer).text(pick(SURNAMES, random)).text(pick(FIRST_NAMES, random))
+                        .text(pick(CITIES, random)).endRow();
+            }
+            return rows.getRows();
+        }
+    }
+
+    private long writeBooks(TableWriter table) throws IOException {
+        Random random = new Random(seed + 3);
+        try (TableWriter rows = table) {
+            rows.integer(0).text("Default Book Name").none().integer(1).integer(1).endRow();
+            for (int book = 0; book < books; book++) {
+                int edition = random.nextInt(10) == 0 ? 2 + random.nextInt(4) : 1;
+                rows.integer(book + 1).text(title(random)).integer(edition).integer(copies[book])
+                        .integer(copies[book] - loans[book]).endRow();
+            }
+            return rows.getRows();
+        }
+    }
+
+    private long writeAuthors(TableWriter table) throws IOException {
+        Random random = new Random(seed + 4);
+        try (TableWriter rows = table) {
+            rows.integer(0).text("Default Name").text("Default Surname").endRow();
+            for (int author = 1; author <= authors; author++) {
+                rows.integer(author).text(pick(FIRST_NAMES, random)).text(pick(SURNAMES, random)).endRow();
+            }
+            return rows.getRows();
+        }
+    }
+
+    private long writeBookAuthors(TableWriter table) throws IOException {
+        Random random = new Random(seed + 5);
+        int[] bookAuthors = new int[AUTHOR_COUNT_ODDS.length];
+        try (TableWriter rows = table) {
+            for (int book = 0; book < books; book++) {
+                int count = pickCount(AUTHOR_COUNT_ODDS, random);
+                count = Math.min(count, authors);
+                for (int seqNo = 0; seqNo < count; seqNo++) {
+                    int author;
+                    do {
+                        author = pickAuthor(random);
+                    } while (contains(bookAuthors, seqNo, author));
+                    bookAuthors[seqNo] = author;
+                    rows.integer(book + 1).integer(author).integer(seqNo + 1).endRow();
+                }
+            }
+            return rows.getRows();
+        }
+    }
+
+    private long writeLoans(TableWriter table) throws IOException {
+        Random random = new Random(seed + 6);
+        int[] borrowers = new int[Byte.MAX_VALUE];
+        try (TableWriter rows = table) {
+            for (int book = 0; book < books; book++) {
+                for (int loan = 0; loan < loans[book]; loan++) {
+                    int customer;
+                    do {
+                        customer = 1 + random.nextInt(customers);
+                    } while (contains(borrowers, loan, customer));
+                    borrowers[loan] = customer;
+                    LocalDate due = today.plusDays(random.nextInt(2 * DUE_DATE_SPREAD_DAYS + 1)
+                            - DUE_DATE_SPREAD_DAYS);
+                    rows.integer(book + 1).date(due).integer(customer).endRow();
+                }
+            }
+            return rows.getRows();
+        }
+    }
+
+    // A title such as "Practical Database Systems: A Practical Approach", at most 60 characters
+    private static String title(Random random) {
+        String title = pick(ADJECTIVES, random) + " " + pick(SUBJECTS, random) + " " + pick(NOUNS, random)
+                + pick(SUBTITLES, random);
+        return title.length() <= TITLE_LENGTH ? title : title.substring(0, TITLE_LENGTH).trim();
+    }
+
+    // Pick an author ID by Zipfian rank
+    private int pickAuthor(Random random) {
+        int rank = Arrays.binarySearch(authorCumulative, random.nextDouble());
+        rank = rank >= 0 ? rank : Math.min(-rank - 1, authors - 1);
+        return authorsByRank[rank];
+    }
+
+    // Pick 1 to n by cumulative odds
+    private static int pickCount(double[] cumulativeOdds, Random random) {
+        double draw = random.nextDouble();
+        for (int count = 0; count < cumulativeOdds.length; count++) {
+            if (draw < cumulativeOdds[count]) {
+                return count + 1;
+            }
+        }
+        return cumulativeOdds.length;
+    }
+
+    private static String pick(String[] values, Random random) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A random order of 0 to n - 1, giving the rank of each position
+    private static int[] shuffledRanks(int n, Random random) {
+        int[] ranks = new int[n];
+        for (int i = 0; i < n; i++) {
+            ranks[i] = i;
+        }
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = ranks[i];
+            ranks[i] = ranks[j];
+            ranks[j] = swap;
+        }
+        return ranks;
+    }
+
+    private static Writer newWriter(Path file) throws IOException {
+        return new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static int getCount(Map<String, String> options, String name, double scaled) {
+        String value = options.get(name);
+        int count = value != null ? Integer.parseInt(value) : (int) Math.round(scaled);
+        if (count < 1) {
+            throw new IllegalArgumentException("Need at least one of --" + name + ": " + count);
+        }
+        return count;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value, found: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * Writes the rows of one table as INSERT statements into the shared SQL
+     * script, as <table>.csv in the CSV directory, or both. Text is quoted
+     * the way the database would read it from either.
+     */
+    private static class TableWriter implements Closeable {
+        private final String insert;
+        private final Writer sql;
+        private final Writer csv;
+        private final StringBuilder sqlRow = new StringBuilder();
+        private final StringBuilder csvRow = new StringBuilder();
+        private boolean firstValue = true;
+        private long rows;
+
+        private TableWriter(String table, String columns, Writer sql, Path csvDirectory) throws IOException {
+            this.insert = "INSERT INTO " + table + " (" + columns + ") VALUES (";
+            this.sql = sql;
+            this.csv = csvDirectory == null ? null : newWriter(csvDirectory.resolve(table + ".csv"));
+            if (csv != null) {
+                csv.write(columns.replace(" ", ""));
+                csv.write('\n');
+            }
+            if (sql != null) {
+                sql.write('\n');
+            }
+        }
+
+        private TableWriter integer(int value) {
+            separate();
+            sqlRow.append(value);
+            csvRow.append(value);
+            return this;
+        }
+
+        private TableWriter text(String value) {
+            separate();
+            sqlRow.append('\'').append(value.replace("'", "''")).append('\'');
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+                csvRow.append('"').append(value.replace("\"", "\"\"")).append('"');
+            } else {
+                csvRow.append(value);
+            }
+            return this;
+        }
+
+        private TableWriter date(LocalDate value) {
+            separate();
+            sqlRow.append('\'').append(value).append('\'');
+            csvRow.append(value);
+            return this;
+        }
+
+        // A NULL, which is an empty unquoted field in CSV
+        private TableWriter none() {
+            separate();
+            sqlRow.append("NULL");
+            return this;
+        }
+
+        private void endRow() throws IOException {
+            if (sql != null) {
+                sql.append(insert).append(sqlRow).append(");\n");
+            }
+            if (csv != null) {
+                csv.append(csvRow).append('\n');
+            }
+            sqlRow.setLength(0);
+            csvRow.setLength(0);
+            firstValue = true;
+            rows++;
+        }
+
+        private void separate() {
+            if (!firstValue) {
+                sqlRow.append(", ");
+                csvRow.append(',');
+            }
+            firstValue = false;
+        }
+
+        private long getRows() {
+            return rows;
+        }
+
+        // Close this table's CSV file; the SQL script is shared and closed by its owner
+        public void close() throws IOException {
+            if (csv != null) {
+                csv.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Benchmarks every model operation against a local PostgreSQL database.
+ *
+ * Each benchmark runs for a warmup period and then a measurement period, once
+ * on a single thread and once on N threads, and reports throughput, average
+ * time per operation and bytes allocated per operation by the calling threads.
+ * The schema is first brought up to date from Data/migrations, then seeded
+ * from a SQL script, which may be the shipped Data/library.data or a larger
+ * synthetic dataset.
+ *
+ * Usage, from Library/bench after compiling the sources in Library/src:
+ *
+ *   java -cp .:../src:../lib/postgresql-42.7.3.jar
+ *       -Dlibrary.db.url=jdbc:postgresql://localhost/library ModelBenchmark
+ *       [--data file] [--threads n] [--warmup seconds] [--measure seconds] [--only name,...]
+ *
+ * The database login is read from LIBRARY_DB_USER and LIBRARY_DB_PASSWORD.
+ */
+public class ModelBenchmark {
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // The tables alone, which the script loading benchmark creates afresh each time
+    private static final String TABLES_FILE = SchemaMigrator.DIRECTORY + "/V001__create_tables.sql";
+
+    private final ConnectionRouter router;
+    private final CatalogueCache cache;
+    private final BookModel bookModel;
+    private final BookModel uncachedBookModel;
+    private final AuthorModel authorModel;
+    private final CustomerModel customerModel;
+    private final LoaningModel loaningModel;
+    private final String dataFile;
+
+    private int[] isbns;
+    private String[] searchTerms;
+    private int[] authorIDs;
+    private int[] customerIDs;
+    private Map<Integer, Set<Integer>> loansByCustomer;
+
+    public ModelBenchmark(ConnectionRouter router, String dataFile) {
+        this.router = router;
+        this.cache = new CatalogueCache(LibraryService.CACHE_SIZE);
+        LookupIndexes lookups = new LookupIndexes();
+        this.bookModel = new BookModel(null, router, cache, lookups);
+
+        // A cache with no room keeps nothing, so every lookup and catalogue goes to the database
+        this.uncachedBookModel = new BookModel(null, router, new CatalogueCache(0), lookups);
+        this.authorModel = new AuthorModel(null, router, cache, lookups);
+        this.customerModel = new CustomerModel(null, router, lookups);
+        this.loaningModel = new LoaningModel(null, router, cache, lookups);
+        this.dataFile = dataFile;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String dataFile = options.getOrDefault("data", "../../Data/library.data");
+        int threads = Integer.parseInt(options.getOrDefault("threads",
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+        long warmupMillis = Long.parseLong(options.getOrDefault("warmup", "5")) * 1000;
+        long measureMillis = Long.parseLong(options.getOrDefault("measure", "10")) * 1000;
+        List<String> only = options.containsKey("only") ? Arrays.asList(options.get("only").split(",")) : null;
+
+        String userid = System.getenv("LIBRARY_DB_USER");
+        String password = System.getenv("LIBRARY_DB_PASSWORD");
+        if (userid == null || password == null) {
+            System.err.println("Set LIBRARY_DB_USER and LIBRARY_DB_PASSWORD to the database login");
+            System.exit(2);
+        }
+
+        // Leave room for every worker thread to hold a connection
+        System.setProperty("library.pool.size", String.valueOf(Math.max(threads, 8)));
+        ConnectionRouter router = LibraryUtils.openConnections(userid, password);
+        try {
+            ModelBenchmark benchmark = new ModelBenchmark(router, dataFile);
+            benchmark.seed();
+            List<Result> results = new ArrayList<>();
+            for (Map.Entry<String, Operation> entry : benchmark.operations().entrySet()) {
+                if (only != null && !only.contains(entry.getKey())) {
+                    continue;
+                }
+                results.add(measure(entry.getKey(), 1, entry.getValue(), warmupMillis, measureMillis));
+
+                // Loading a script is measured single-threaded only, as it replaces the same schema
+                if (threads > 1 && !entry.getKey().equals("loadScript")) {
+                    results.add(measure(entry.getKey(), threads, entry.getValue(), warmupMillis, measureMillis));
+                }
+            }
+            printResults(results);
+        } finally {
+            router.close();
+        }
+    }
+
+    // Create or update the schema, including the triggers that maintain summaries as data is loaded
+    static void migrate(Connection conn) throws IOException, SQLException {
+        System.out.println(new SchemaMigrator(conn, Paths.get(SchemaMigrator.DIRECTORY)).migrate());
+    }
+
+    // Load the data file and note the keys the benchmarks will pick from
+    private void seed() throws IOException, SQLException {
+        try (Reader script = new FileReader(dataFile);
+                Connection conn = router.getConnection()) {
+            migrate(conn);
+            System.out.println(new SqlScriptLoader(conn).load(script));
+        }
+        cache.invalidateAll();
+
+        List<BookRecord> catalogue = bookModel.findCatalogue();
+        isbns = catalogue.stream().mapToInt(BookRecord::getIsbn).toArray();
+
+        // Search for the start of each title's first word, as a patron typing it would
+        searchTerms = catalogue.stream().map(book -> book.getTitle().split("\\s+")[0])
+                .map(word -> word.substring(0, Math.min(4, word.length()))).toArray(String[]::new);
+        authorIDs = authorModel.findAllAuthors().stream().mapToInt(AuthorRecord::getAuthorID)
+                .filter(id -> id != 0).toArray();
+        loansByCustomer = new LinkedHashMap<>();
+        List<Integer> customers = new ArrayList<>();
+        for (CustomerRecord customer : customerModel.findAllCustomers()) {
+            if (customer.getCustomerID() != 0) {
+                customers.add(customer.getCustomerID());
+            }
+        }
+        customerIDs = customers.stream().mapToInt(Integer::intValue).toArray();
+        for (LoanedBook loanedBook : bookModel.findLoanedBooks()) {
+            for (CustomerRecord borrower : loanedBook.getBorrowers()) {
+                loansByCustomer.computeIfAbsent(borrower.getCustomerID(), id -> new java.util.HashSet<>())
+                        .add(loanedBook.getBook().getIsbn());
+            }
+        }
+        if (isbns.length == 0 || authorIDs.length == 0 || customerIDs.length == 0) {
+            throw new IllegalStateException("The data file must contain books, authors and customers");
+        }
+    }
+
+    // The benchmarked operations, by name
+    private Map<String, Operation> operations() {
+        Map<String, Operation> operations = new LinkedHashMap<>();
+        operations.put("bookLookup", (thread, i) -> uncachedBookModel.bookLookup(pick(isbns)));
+        operations.put("bookLookup.cached", (thread, i) -> bookModel.bookLookup(pick(isbns)));
+        operations.put("showCatalogue", (thread, i) -> uncachedBookModel.showCatalogue());
+        operations.put("showCatalogue.cached", (thread, i) -> bookModel.showCatalogue());
+        operations.put("searchCatalogue", (thread, i) -> bookModel.searchCatalogue(
+                searchTerms[ThreadLocalRandom.current().nextInt(searchTerms.length)], null, LibraryService.PAGE_SIZE));
+        operations.put("showLoanedBooks", (thread, i) -> bookModel.showLoanedBooks());
+        operations.put("showAuthor", (thread, i) -> authorModel.showAuthor(pick(authorIDs)));
+        operations.put("showCustomer", (thread, i) -> customerModel.showCustomer(pick(customerIDs)));
+        operations.put("borrowReturn.singleTrip", (thread, i) -> borrowAndReturn(LoanMode.SINGLE_TRIP, thread, i));
+        operations.put("borrowReturn.optimistic", (thread, i) -> borrowAndReturn(LoanMode.OPTIMISTIC, thread, i));
+        operations.put("loadScript", (thread, i) -> loadIntoScratchSchema());
+        return operations;
+    }
+
+    // Borrow a book and return it again; each thread lends to its own customer so loans never collide
+    private void borrowAndReturn(LoanMode mode, int thread, long iteration) throws SQLException {
+        int customerID = customerIDs[thread % customerIDs.length];
+        Set<Integer> existing = loansByCustomer.getOrDefault(customerID, Set.of());
+        int isbn = isbns[(int) ((iteration * 31 + thread) % isbns.length)];
+        if (existing.contains(isbn)) {
+            return;
+        }
+        LoanResult borrowed = loaningModel.borrow(mode, isbn, customerID, java.sql.Date.valueOf("2030-01-01"));
+        if (borrowed.getOutcome() == LoanResult.Outcome.BORROWED) {
+            loaningModel.returnLoan(mode, isbn, customerID);
+        }
+    }
+
+    // Load the tables and data file into a fresh schema so every iteration does the same work
+    private void loadIntoScratchSchema() throws IOException, SQLException {
+        try (Reader tables = new FileReader(TABLES_FILE);
+                Reader script = new FileReader(dataFile);
+                Connection conn = router.getConnection()) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("DROP SCHEMA IF EXISTS benchmark_load CASCADE");
+                stmt.execute("CREATE SCHEMA benchmark_load");
+                stmt.execute("SET search_path TO benchmark_load");
+            }
+            try {
+                new SqlScriptLoader(conn).load(tables);
+                new SqlScriptLoader(conn).load(script);
+            } finally {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("SET search_path TO DEFAULT");
+                    stmt.execute("DROP SCHEMA benchmark_load CASCADE");
+                }
+            }
+        }
+    }
+
+    private static int pick(int[] keys) {
+        return keys[ThreadLocalRandom.current().nextInt(keys.length)];
+    }
+
+    // Run an operation on the given number of threads through a warmup and a measurement period
+    private static Result measure(String name, int threads, Operation operation, long warmupMillis,
+            long measureMillis) throws InterruptedException {
+        Phase phase = new Phase();
+        CountDownLatch started = new CountDownLatch(threads);
+        Worker[] workers = new Worker[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Worker(t, operation, phase, started);
+            workers[t].start();
+        }
+        started.await();
+        Thread.sleep(warmupMillis);
+        phase.current = Phase.MEASURE;
+        Thread.sleep(measureMillis);
+        phase.current = Phase.DONE;
+
+        Result result = new Result(name, threads, measureMillis);
+        for (Worker worker : workers) {
+            worker.join();
+            if (worker.failure != null) {
+                throw new IllegalStateException(name + " failed on thread " + worker.index, worker.failure);
+            }
+            result.operations += worker.operations;
+            result.elapsedNanos += worker.elapsedNanos;
+            result.allocatedBytes += worker.allocatedBytes;
+        }
+        System.out.println(result);
+        return result;
+    }
+
+    private static void printResults(List<Result> results) {
+        System.out.println();
+        System.out.printf("%-26s %7s %12s %12s %14s%n", "Benchmark", "Threads", "ops/s", "ms/op", "alloc B/op");
+        for (Result result : results) {
+            System.out.printf("%-26s %7d %12.1f %12.3f %14.0f%n", result.name, result.threads,
+                    result.throughput(), result.averageMillis(), result.allocatedPerOperation());
+        }
+    }
+
+    // Read --name value pairs
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Expected --name value, found: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    /**
+     * One call of a benchmarked operation.
+     */
+    private interface Operation {
+        void run(int thread, long iteration) throws Exception;
+    }
+
+    /**
+     * The shared warmup, measurement or done flag.
+     */
+    private static class Phase {
+        private static final int WARMUP = 0;
+        private static final int MEASURE = 1;
+        private static final int DONE = 2;
+
+        private volatile int current = WARMUP;
+    }
+
+    /**
+     * A thread calling one operation in a loop, counting only measured calls.
+     */
+    private static class Worker extends Thread {
+        private final int index;
+        private final Operation operation;
+        private final Phase phase;
+        private final CountDownLatch started;
+
+        private long operations;
+        private long elapsedNanos;
+        private long allocatedBytes;
+        private Exception failure;
+
+        private Worker(int index, Operation operation, Phase phase, CountDownLatch started) {
+            super("benchmark-" + index);
+            this.index = index;
+            this.operation = operation;
+            this.phase = phase;
+            this.started = started;
+        }
+
+        @Override
+        public void run() {
+            started.countDown();
+            long iteration = 0;
+            try {
+                while (phase.current == Phase.WARMUP) {
+                    operation.run(index, iteration++);
+                }
+                long allocatedBefore = THREADS.getThreadAllocatedBytes(getId());
+                long start = System.nanoTime();
+                while (phase.current == Phase.MEASURE) {
+                    operation.run(index, iteration++);
+                    operations++;
+                }
+                elapsedNanos = System.nanoTime() - start;
+                allocatedBytes = THREADS.getThreadAllocatedBytes(getId()) - allocatedBefore;
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+    }
+
+    /**
+     * Totals for one benchmark at one thread count.
+     */
+    private static class Result {
+        private final String name;
+        private final int threads;
+        private final long measureMillis;
+        private long operations;
+        private long elapsedNanos;
+        private long allocatedBytes;
+
+        private Result(String name, int threads, long measureMillis) {
+            this.name = name;
+            this.threads = threads;
+            this.measureMillis = measureMillis;
+        }
+
+        private double throughput() {
+            return operations * 1000.0 / measureMillis;
+        }
+
+        private double averageMillis() {
+            return operations == 0 ? 0 : elapsedNanos / 1e6 / operations;
+        }
+
+        private double allocatedPerOperation() {
+            return operations == 0 ? 0 : (double) allocatedBytes / operations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%d threads): %.1f ops/s, %.3f ms/op, %.0f B/op", name, threads, throughput(),
+                    averageMillis(), allocatedPerOperation());
+        }
+    }
+}
@@ -1,16 +1,23 @@
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import javax.swing.JFrame;
 
 public class AuthorModel {
     private final JFrame parent;
-    private final Connection conn;
+    private final ConnectionRouter router;
+    private final CatalogueCache cache;
+    private final LookupIndexes lookups;
 
-    public AuthorModel(JFrame parent, Connection conn) {
+    public AuthorModel(JFrame parent, ConnectionRouter router, CatalogueCache cache, LookupIndexes lookups) {
         this.parent = parent;
-        this.conn = conn;
+        this.router = router;
+        this.cache = cache;
+        this.lookups = lookups;
     }
 
     // Get author by ID
@@ -23,177 +30,247 @@ public class AuthorModel {
             return output.toString();
         }
 
-        String authorQuery = "SELECT a.Name, a.Surname, b.ISBN, b.Title FROM Author a LEFT JOIN Book_Author ba ON a.AuthorId = ba.AuthorId LEFT JOIN Book b ON ba.ISBN = b.ISBN WHERE a.AuthorId = ? ORDER BY b.ISBN";
-
-        // Allow reading of locked items
         try {
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
-
-            // Get data
-            try (PreparedStatement stmt = conn.prepareStatement(authorQuery)) {
-                stmt.setInt(1, authorID);
-                ResultSet rs = stmt.executeQuery();
+            AuthorRecord author = findAuthor(authorID);
 
-                // Requested author does not exist
-                if (!processAuthorData(rs, output, authorID)) {
-                    output.append("\tNo such author ID: ").append(authorID);
-                }
+            // Requested author does not exist
+            if (author == null) {
+                output.append("\tNo such author ID: ").append(authorID);
+            } else {
+                appendAuthorInfo(output, author);
             }
-
-            // Revert allowing the reading of locked items
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
         } catch (SQLException e) {
             LibraryUtils.showErrorMessage(parent, e.getMessage(), "Author Lookup");
         }
         return output.toString();
     }
 
+    // Find an author and the books they have written, or null if there is no such author
+    public AuthorRecord findAuthor(int authorID) throws SQLException {
+        if (authorID == 0) {
+            return new AuthorRecord(0, "Default Name", "Default Surname", new ArrayList<>());
+        }
+
+        String authorQuery = "SELECT a.Name, a.Surname, b.ISBN, b.Title FROM Author a LEFT JOIN Book_Author ba ON a.AuthorId = ba.AuthorId LEFT JOIN Book b ON ba.ISBN = b.ISBN WHERE a.AuthorId = ? ORDER BY b.ISBN";
+
+        try (Connection conn = router.getReplicaConnection()) {
+            // Get data
+            AuthorRecord author;
+            PreparedStatement stmt = StatementCache.prepare(conn, "author.show", authorQuery);
+            stmt.setInt(1, authorID);
+            try (ResultSet rs = stmt.executeQuery()) {
+                author = readAuthor(rs, authorID);
+            }
+            return author;
+        }
+    }
+
     // Append default author information to output
     private void appendDefaultAuthor(StringBuilder output) {
         output.append("\t0 - Default Name Default Surname\n\t(No books written)");
     }
 
-    // Process data to extract author information
-    private boolean processAuthorData(ResultSet rs, StringBuilder output, int authorID) throws SQLException {
-
-        // Initialise books summary
-        StringBuilder books = new StringBuilder();
-
-        // Initialise book information counter variables
-        boolean authorFound = false;
-        int bookCount = 0;
+    // Read an author's rows joined with their books, or null if there are none
+    private AuthorRecord readAuthor(ResultSet rs, int authorID) throws SQLException {
+        String firstName = null;
+        String surname = null;
+        List<BookSummary> books = new ArrayList<>();
 
         // Iterate through data entries
         while (rs.next()) {
-
-            // Append new author information
-            if (!authorFound) {
-                appendAuthorInfo(rs, output, authorID);
-                authorFound = true;
+            if (firstName == null) {
+                firstName = rs.getString("Name").trim();
+                surname = rs.getString("Surname").trim();
             }
 
-            // Append new book information
-            if (appendBookInfo(rs, books)) {
-                bookCount++;
+            // Authors without books have a single row with no book
+            String title = rs.getString("Title");
+            if (title != null) {
+                books.add(new BookSummary(rs.getInt("ISBN"), title.trim()));
             }
         }
+        if (firstName == null) {
+            return null;
+        }
+        LibraryMetrics.addRows(1);
+        return new AuthorRecord(authorID, firstName, surname, books);
+    }
 
-        // Finalise author information with complete book summary
-        if (authorFound) {
-            appendBookSummary(output, books, bookCount);
+    // Append author information and book summary to output
+    private void appendAuthorInfo(StringBuilder output, AuthorRecord author) {
+        output.append("\t").append(author.getAuthorID()).append(" - ").append(author.getName()).append(" ")
+                .append(author.getSurname());
+        List<BookSummary> books = author.getBooks();
+        if (books.isEmpty()) {
+            output.append("\n\t(No books written)");
+            return;
+        }
+        output.append(books.size() == 1 ? "\n\tBook written:" : "\n\tBooks written:");
+        for (BookSummary book : books) {
+            output.append("\n\t\t").append(book.getIsbn()).append(" - ").append(book.getTitle());
         }
-        return authorFound;
     }
 
-    // Append author information to output
-    private void appendAuthorInfo(ResultSet rs, StringBuilder output, int authorID) throws SQLException {
-        String firstName = rs.getString("Name").trim();
-        String surname = rs.getString("Surname").trim();
-        String authorFullName = firstName + " " + surname;
-        output.append("\t").append(authorID).append(" - ").append(authorFullName);
+    // Get all authors
+    public String showAllAuthors() {
+        return LibraryUtils.render(this::showAllAuthors);
     }
 
-    // Append book information to books summary
-    private boolean appendBookInfo(ResultSet rs, StringBuilder books) throws SQLException {
-        String title = rs.getString("Title");
-        if (title != null) {
-            int isbn = rs.getInt("ISBN");
-            books.append("\n\t\t").append(isbn).append(" - ").append(title.trim());
-            return true;
+    // Write every author to out one at a time
+    public void showAllAuthors(Appendable out) throws IOException {
+        StringBuilder entry = new StringBuilder("Show All Authors:");
+        out.append(entry);
+        try {
+            forEachAuthor(author -> {
+                entry.setLength(0);
+                appendAuthorEntry(entry, author);
+                out.append(entry);
+            });
+        } catch (SQLException e) {
+            LibraryUtils.showErrorMessage(parent, e.getMessage(), "Show All Authors");
         }
-        return false;
     }
 
-    // Append book summary to output
-    private void appendBookSummary(StringBuilder output, StringBuilder books, int bookCount) {
-        if (bookCount > 0) {
-            output.append(bookCount == 1 ? "\n\tBook written:" : "\n\tBooks written:").append(books);
-        } else {
-            output.append("\n\t(No books written)");
-        }
+    // Find every author in ID order, without their books
+    public List<AuthorRecord> findAllAuthors() throws SQLException {
+        List<AuthorRecord> authors = new ArrayList<>();
+        forEachAuthor(authors::add);
+        return authors;
     }
 
-    // Get all authors
-    public String showAllAuthors() {
-        StringBuilder output = new StringBuilder("Show All Authors:");
-        String authorQuery = "SELECT DISTINCT a.AuthorId, a.Name, a.Surname FROM Author a ORDER BY a.AuthorId";
+    // Pass every author to the sink in ID order, without their books, as the rows are read
+    public <E extends Exception> void forEachAuthor(RecordSink<AuthorRecord, E> sink) throws SQLException, E {
+        String authorQuery = "SELECT a.AuthorId, a.Name, a.Surname FROM Author a ORDER BY a.AuthorId";
 
-        // Allow reading of locked items
-        try {
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+        try (Connection conn = router.getReplicaConnection()) {
+            // Read through a server-side cursor, a batch of rows at a time, which needs a transaction
+            conn.setAutoCommit(false);
 
             // Get data
-            try (PreparedStatement stmt = conn.prepareStatement(authorQuery)) {
-                ResultSet rs = stmt.executeQuery();
-                processAuthorsData(rs, output);
+            PreparedStatement stmt = StatementCache.prepare(conn, "author.all", authorQuery);
+            stmt.setFetchSize(LibraryUtils.FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                readAuthors(rs, sink);
             }
+            conn.commit();
+        }
+    }
 
-            // Revert allowing the reading of locked items
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+    // Get one page of authors following the given ID, or the first page if the token is null
+    public Page showAuthorsPage(Integer afterAuthorID, int pageSize) {
+        StringBuilder output = new StringBuilder(afterAuthorID == null ? "Show All Authors:" : "Show All Authors (continued):");
+        Integer nextToken = null;
+        try {
+            RecordPage<AuthorRecord> page = findAuthorsPage(afterAuthorID, pageSize);
+            for (AuthorRecord author : page.getRecords()) {
+                appendAuthorEntry(output, author);
+            }
+            nextToken = page.getNextToken();
         } catch (SQLException e) {
             LibraryUtils.showErrorMessage(parent, e.getMessage(), "Show All Authors");
         }
-        return output.toString();
+        return new Page(output.toString(), nextToken);
     }
 
-    // Process data to get information about all authors
-    private void processAuthorsData(ResultSet rs, StringBuilder output) throws SQLException {
+    // Find one page of authors following the given ID, or the first page if the token is null
+    public RecordPage<AuthorRecord> findAuthorsPage(Integer afterAuthorID, int pageSize) throws SQLException {
+        String pageQuery = "SELECT a.AuthorId, a.Name, a.Surname FROM Author a WHERE a.AuthorId > ? ORDER BY a.AuthorId LIMIT ?";
+
+        try (Connection conn = router.getReplicaConnection()) {
+            // Get one more author than needed to tell whether another page follows
+            List<AuthorRecord> authors;
+            PreparedStatement stmt = StatementCache.prepare(conn, "author.page", pageQuery);
+            stmt.setInt(1, afterAuthorID == null ? -1 : afterAuthorID);
+            stmt.setInt(2, pageSize + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                authors = readAuthors(rs);
+            }
+
+            if (authors.size() > pageSize) {
+                return new RecordPage<>(authors.subList(0, pageSize), authors.get(pageSize - 1).getAuthorID());
+            }
+            return new RecordPage<>(authors, null);
+        }
+    }
+
+    // Read author rows without their books
+    private List<AuthorRecord> readAuthors(ResultSet rs) throws SQLException {
+        List<AuthorRecord> authors = new ArrayList<>();
+        readAuthors(rs, authors::add);
+        return authors;
+    }
+
+    // Pass each author row to the sink as it is read
+    private <E extends Exception> void readAuthors(ResultSet rs, RecordSink<AuthorRecord, E> sink)
+            throws SQLException, E {
+        int count = 0;
         while (rs.next()) {
-            processAuthorEntry(rs, output);
+            sink.accept(new AuthorRecord(rs.getInt("AuthorId"), rs.getString("Name").trim(),
+                    rs.getString("Surname").trim(), new ArrayList<>()));
+            count++;
         }
+        LibraryMetrics.addRows(count);
     }
 
-    // Process a single author
-    private void processAuthorEntry(ResultSet rs, StringBuilder output) throws SQLException {
-        int authorID = rs.getInt("AuthorId");
-        String firstName = rs.getString("Name").trim();
-        String surname = rs.getString("Surname").trim();
-        output.append("\n\t").append(authorID).append(": ").append(surname).append(", ").append(firstName);
+    // Append a single author to a listing
+    private void appendAuthorEntry(StringBuilder output, AuthorRecord author) {
+        output.append("\n\t").append(author.getAuthorID()).append(": ").append(author.getSurname()).append(", ")
+                .append(author.getName());
     }
 
     // Delete author by ID
     public String deleteAuthor(int authorID) {
         StringBuilder output = new StringBuilder("Delete Author:\n");
+        try {
+            DeleteResult result = removeAuthor(authorID);
+            switch (result.getOutcome()) {
+                case DEFAULT_ENTRY:
+                    output.append("\tCannot delete default author entry");
+                    break;
+                case DELETED:
+                    output.append("\tAuthor with ID ").append(authorID).append(" deleted");
+                    break;
+                default:
+                    output.append("\tNo such Author ID: ").append(authorID);
+                    break;
+            }
+        } catch (SQLException e) {
+            LibraryUtils.showErrorMessage(parent, e.getMessage(), "Delete Author");
+        }
+        return output.toString();
+    }
+
+    // Delete an author by ID unless it is the default entry
+    public DeleteResult removeAuthor(int authorID) throws SQLException {
 
-        // Check if requested customer is default entry
+        // Check if requested author is default entry
         if (authorID == 0) {
-            output.append("\tCannot delete default author entry");
-            return output.toString();
+            return new DeleteResult(DeleteResult.Outcome.DEFAULT_ENTRY, authorID);
         }
 
         String deleteQuery = "DELETE FROM Author WHERE AuthorId = ?";
 
-        // Begin transaction and disable auto commit
-        try {
-            conn.setAutoCommit(false);
+        // Begin transaction and disable auto commit, which the pool restores on release
+        try (Connection conn = router.getConnection()) {
+            try {
+                conn.setAutoCommit(false);
 
-            // Do deletion
-            try (PreparedStatement stmt = conn.prepareStatement(deleteQuery)) {
+                // Do deletion
+                PreparedStatement stmt = StatementCache.prepare(conn, "author.delete", deleteQuery);
                 stmt.setInt(1, authorID);
                 int rowsAffected = stmt.executeUpdate();
-                handleDeletionOutput(output, authorID, rowsAffected);
 
                 // Complete transaction
                 conn.commit();
+                cache.invalidateAuthor(authorID);
+                if (rowsAffected > 0) {
+                    lookups.removeAuthor(authorID);
+                }
+                return new DeleteResult(rowsAffected > 0 ? DeleteResult.Outcome.DELETED
+                        : DeleteResult.Outcome.NOT_FOUND, authorID);
+            } catch (SQLException e) {
+                throw LibraryUtils.rollback(conn, e);
             }
-        } catch (SQLException e) {
-            LibraryUtils.handleRollback(parent, conn, e.getMessage(), "Delete Author");
-        }
-
-        // Enable auto commit
-        finally {
-            LibraryUtils.restoreAutoCommit(parent, conn, "Delete Author");
-        }
-        return output.toString();
-    }
-
-    // Handle deletion output
-    private void handleDeletionOutput(StringBuilder output, int authorID, int rowsAffected)
-            throws SQLException {
-        if (rowsAffected > 0) {
-            output.append("\tAuthor with ID ").append(authorID).append(" deleted");
-        } else {
-            output.append("\tNo such Author ID: ").append(authorID);
         }
     }
 }
@@ -0,0 +1,36 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An author with the books they have written in ISBN order. Listings of many
+ * authors leave the book list empty.
+ */
+public class AuthorRecord {
+    private final int authorID;
+    private final String name;
+    private final String surname;
+    private final List<BookSummary> books;
+
+    public AuthorRecord(int authorID, String name, String surname, List<BookSummary> books) {
+        this.authorID = authorID;
+        this.name = name;
+        this.surname = surname;
+        this.books = Collections.unmodifiableList(books);
+    }
+
+    public int getAuthorID() {
+        return authorID;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getSurname() {
+        return surname;
+    }
+
+    public List<BookSummary> getBooks() {
+        return books;
+    }
+}
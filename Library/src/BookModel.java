@@ -1,16 +1,28 @@
+import java.io.IOException;
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import javax.swing.JFrame;
 
 public class BookModel {
+    // SQLSTATE raised when a loan recorded since the check still refers to the book
+    private static final String FOREIGN_KEY_VIOLATION = "23503";
+
     private final JFrame parent;
-    private final Connection conn;
+    private final ConnectionRouter router;
+    private final CatalogueCache cache;
+    private final LookupIndexes lookups;
 
-    public BookModel(JFrame parent, Connection conn) {
+    public BookModel(JFrame parent, ConnectionRouter router, CatalogueCache cache, LookupIndexes lookups) {
         this.parent = parent;
-        this.conn = conn;
+        this.router = router;
+        this.cache = cache;
+        this.lookups = lookups;
     }
 
     // Get book by ISBN
@@ -23,84 +35,100 @@ public class BookModel {
             return output.toString();
         }
 
-        String bookQuery = "SELECT b.ISBN, b.Title, b.Edition_No, b.NumOfCop, b.NumLeft, a.Surname FROM Book b LEFT JOIN Book_Author ba ON b.ISBN = ba.ISBN LEFT JOIN Author a ON ba.AuthorId = a.AuthorId WHERE b.ISBN = ? ORDER BY b.ISBN, ba.AuthorSeqNo";
-
-        // Allow reading of locked items
         try {
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+            BookRecord book = findBook(isbn);
 
-            // Get data
-            try (PreparedStatement stmt = conn.prepareStatement(bookQuery)) {
-                stmt.setInt(1, isbn);
-                ResultSet rs = stmt.executeQuery();
-
-                // Requested book does not exist
-                if (!processBookData(rs, output, isbn)) {
-                    output.append("\tNo such ISBN: ").append(isbn);
-                }
+            // Requested book does not exist
+            if (book == null) {
+                output.append("\tNo such ISBN: ").append(isbn);
+            } else {
+                appendBookInfo(output, book);
             }
-
-            // Revert allowing the reading of locked items
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
         } catch (SQLException e) {
             LibraryUtils.showErrorMessage(parent, e.getMessage(), "Book Lookup");
         }
         return output.toString();
     }
 
+    // Find a book by ISBN, or null if there is no such book
+    public BookRecord findBook(int isbn) throws SQLException {
+        if (isbn == 0) {
+            return new BookRecord(0, "Default Book Name", 0, 1, 1, new ArrayList<>(), new ArrayList<>());
+        }
+
+        // Serve from cache where possible
+        BookRecord book = cache.getBook(isbn);
+        return book != null ? book : loadBook(isbn);
+    }
+
+    // Load a single book and cache it
+    private BookRecord loadBook(int isbn) throws SQLException {
+        String bookQuery = "SELECT b.ISBN, b.Title, b.Edition_No, b.NumOfCop, b.NumLeft, l.Surnames, l.AuthorIds FROM Book b LEFT JOIN Book_Author_List l ON b.ISBN = l.ISBN WHERE b.ISBN = ?";
+        long version = cache.getVersion();
+        try (Connection conn = router.getReplicaConnection()) {
+            // Get data
+            List<BookRecord> books;
+            PreparedStatement stmt = StatementCache.prepare(conn, "book.lookup", bookQuery);
+            stmt.setInt(1, isbn);
+            try (ResultSet rs = stmt.executeQuery()) {
+                books = readBooks(rs);
+            }
+
+            if (books.isEmpty()) {
+                return null;
+            }
+            cache.putBook(books.get(0), version);
+            return books.get(0);
+        }
+    }
+
     // Append default book information to output
     public void appendDefaultBook(StringBuilder output) {
         output.append(
                 "0: Default Book Name\n\tEdition: 0 - Number of copies: 1 - Copies left: 1\n\tAuthor: (no authors)");
     }
 
-    // Process data to extract book information
-    private boolean processBookData(ResultSet rs, StringBuilder output, int isbn) throws SQLException {
-        StringBuilder authors = new StringBuilder();
-
-        // Initialise author information counter variable
-        boolean bookFound = false;
+    // Read book rows with their author lists, one row per book
+    private List<BookRecord> readBooks(ResultSet rs) throws SQLException {
+        List<BookRecord> books = new ArrayList<>();
+        readBooks(rs, books::add);
+        return books;
+    }
 
-        // Iterate through data entries
+    // Pass each book row to the sink as it is read, returning the number of books
+    private <E extends Exception> int readBooks(ResultSet rs, RecordSink<BookRecord, E> sink)
+            throws SQLException, E {
+        int count = 0;
         while (rs.next()) {
-
-            // Append new book information
-            if (!bookFound) {
-                appendBookInfo(rs, output, isbn);
-                bookFound = true;
-            }
-
-            // Append new author information
-            appendAuthorInfo(rs, authors);
+            sink.accept(new BookRecord(rs.getInt("ISBN"), rs.getString("Title").trim(), rs.getInt("Edition_No"),
+                    rs.getInt("NumOfCop"), rs.getInt("NumLeft"), readSurnames(rs.getArray("Surnames")),
+                    readAuthorIDs(rs.getArray("AuthorIds"))));
+            count++;
         }
+        LibraryMetrics.addRows(count);
+        return count;
+    }
 
-        // Finialise book information with complete author summary
-        if (bookFound) {
-            output.append("\t").append(formatAuthors(authors.toString()));
-        }
-        return bookFound;
+    // Append book information to lookup output
+    private void appendBookInfo(StringBuilder output, BookRecord book) {
+        output.append("\t").append(book.getIsbn()).append(": ").append(book.getTitle()).append("\n").append("\t")
+                .append("Edition: ").append(book.getEditionNo()).append(" - Number of copies: ")
+                .append(book.getNumOfCop()).append(" - Copies left: ").append(book.getNumLeft()).append("\n")
+                .append("\t").append(formatAuthors(book.getAuthorSurnames()));
     }
 
-    // Append book information to output
-    private void appendBookInfo(ResultSet rs, StringBuilder output, int isbn) throws SQLException {
-        String title = rs.getString("Title").trim();
-        int editionNo = rs.getInt("Edition_No");
-        int numOfCop = rs.getInt("NumOfCop");
-        int numLeft = rs.getInt("NumLeft");
-        output.append("\t").append(isbn).append(": ").append(title).append("\n").append("\t")
-                .append("Edition: ").append(editionNo).append(" - Number of copies: ").append(numOfCop)
-                .append(" - Copies left: ").append(numLeft).append("\n");
+    // Append a single book to catalogue output
+    private void appendCatalogueEntry(StringBuilder output, BookRecord book) {
+        output.append("\n\n").append(book.getIsbn()).append(": ").append(book.getTitle()).append("\n")
+                .append("\tEdition: ").append(book.getEditionNo())
+                .append(" - Number of copies: ").append(book.getNumOfCop())
+                .append(" - Copies left: ").append(book.getNumLeft())
+                .append("\n\t").append(formatAuthors(book.getAuthorSurnames()));
     }
 
-    // Append author information to authors summary
-    private void appendAuthorInfo(ResultSet rs, StringBuilder authors) throws SQLException {
-        String authorSurname = rs.getString("Surname");
-        if (authorSurname != null) {
-            if (authors.length() > 0) {
-                authors.append(", ");
-            }
-            authors.append(authorSurname.trim());
-        }
+    // Format authors list
+    private String formatAuthors(List<String> surnames) {
+        return formatAuthors(String.join(", ", surnames));
     }
 
     // Format authors list
@@ -114,228 +142,395 @@ public class BookModel {
 
     // Get all books
     public String showCatalogue() {
+
+        // Serve from cache where possible
+        String catalogue = cache.getCatalogue();
+        if (catalogue != null) {
+            return catalogue;
+        }
+
         StringBuilder output = new StringBuilder("Show Catalogue:\n\n");
 
         // Get default entry
         appendDefaultBook(output);
 
-        String catalogueQuery = "SELECT b.ISBN, b.Title, b.Edition_No, b.NumOfCop, b.NumLeft, a.Surname FROM Book b LEFT JOIN Book_Author ba ON b.ISBN = ba.ISBN LEFT JOIN Author a ON ba.AuthorId = a.AuthorId WHERE b.ISBN > 0 ORDER BY b.ISBN, ba.AuthorSeqNo";
+        long version = cache.getVersion();
+        try {
+            List<BookRecord> books = findCatalogue();
+            for (BookRecord book : books) {
+                appendCatalogueEntry(output, book);
+            }
+            cache.putCatalogue(output.toString(), books, version);
+        } catch (SQLException e) {
+            LibraryUtils.showErrorMessage(parent, e.getMessage(), "Show Catalogue");
+        }
+        return output.toString();
+    }
+
+    // Write the catalogue to out one book at a time; only a catalogue already cached is sent whole
+    public void showCatalogue(Appendable out) throws IOException {
+        String catalogue = cache.getCatalogue();
+        if (catalogue != null) {
+            out.append(catalogue);
+            return;
+        }
 
-        // Allow reading of locked items
+        // Render each book into the same buffer and hand it on, so memory does not grow with the catalogue
+        StringBuilder entry = new StringBuilder("Show Catalogue:\n\n");
+        appendDefaultBook(entry);
+        out.append(entry);
         try {
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+            forEachCatalogueBook(book -> {
+                entry.setLength(0);
+                appendCatalogueEntry(entry, book);
+                out.append(entry);
+            });
+        } catch (SQLException e) {
+            LibraryUtils.showErrorMessage(parent, e.getMessage(), "Show Catalogue");
+        }
+    }
+
+    // Find every book other than the default entry, in ISBN order
+    public List<BookRecord> findCatalogue() throws SQLException {
+        List<BookRecord> books = new ArrayList<>();
+        forEachCatalogueBook(books::add);
+        return books;
+    }
+
+    // Pass every book other than the default entry to the sink in ISBN order, as the rows are read
+    public <E extends Exception> void forEachCatalogueBook(RecordSink<BookRecord, E> sink) throws SQLException, E {
+        String catalogueQuery = "SELECT b.ISBN, b.Title, b.Edition_No, b.NumOfCop, b.NumLeft, l.Surnames, l.AuthorIds FROM Book b LEFT JOIN Book_Author_List l ON b.ISBN = l.ISBN WHERE b.ISBN > 0 ORDER BY b.ISBN";
+
+        try (Connection conn = router.getReplicaConnection()) {
+            // Read through a server-side cursor, a batch of rows at a time, which needs a transaction
+            conn.setAutoCommit(false);
 
             // Get data
-            try (PreparedStatement stmt = conn.prepareStatement(catalogueQuery)) {
-                ResultSet rs = stmt.executeQuery();
-                processBooksData(rs, output);
+            PreparedStatement stmt = StatementCache.prepare(conn, "book.catalogue", catalogueQuery);
+            stmt.setFetchSize(LibraryUtils.FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                readBooks(rs, sink);
             }
+            conn.commit();
+        }
+    }
+
+    // Get one page of books following the given ISBN, or the first page if the token is null
+    public Page showCataloguePage(Integer afterISBN, int pageSize) {
+        StringBuilder output = new StringBuilder(afterISBN == null ? "Show Catalogue:\n\n" : "Show Catalogue (continued):");
+        Integer nextToken = null;
+
+        // Get default entry on the first page only
+        if (afterISBN == null) {
+            appendDefaultBook(output);
+        }
 
-            // Revert allowing reading of locked items
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+        try {
+            RecordPage<BookRecord> page = findCataloguePage(afterISBN, pageSize);
+            for (BookRecord book : page.getRecords()) {
+                appendCatalogueEntry(output, book);
+            }
+            nextToken = page.getNextToken();
         } catch (SQLException e) {
             LibraryUtils.showErrorMessage(parent, e.getMessage(), "Show Catalogue");
         }
-        return output.toString();
+        return new Page(output.toString(), nextToken);
     }
 
-    // Process data to get information about all books
-    private void processBooksData(ResultSet rs, StringBuilder output) throws SQLException {
-        StringBuilder authors = new StringBuilder();
-        int currentISBN = -1;
-        boolean firstEntry = true;
-
-        while (rs.next()) {
-            int isbn = rs.getInt("ISBN");
-            if (isbn != currentISBN) {
-                if (!firstEntry) {
-                    appendAuthors(output, authors);
-                }
-                processBookEntry(rs, output);
+    // Find one page of books following the given ISBN, or the first page if the token is null
+    public RecordPage<BookRecord> findCataloguePage(Integer afterISBN, int pageSize) throws SQLException {
+        String pageQuery = "SELECT b.ISBN, b.Title, b.Edition_No, b.NumOfCop, b.NumLeft, l.Surnames, l.AuthorIds FROM Book b LEFT JOIN Book_Author_List l ON b.ISBN = l.ISBN WHERE b.ISBN > ? ORDER BY b.ISBN LIMIT ?";
+
+        try (Connection conn = router.getReplicaConnection()) {
+            // Get one more book than needed to tell whether another page follows
+            List<BookRecord> books;
+            PreparedStatement stmt = StatementCache.prepare(conn, "book.cataloguePage", pageQuery);
+            stmt.setInt(1, afterISBN == null ? 0 : afterISBN);
+            stmt.setInt(2, pageSize + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                books = readBooks(rs);
+            }
 
-                // Clear the authors StringBuilder for the next book
-                authors.setLength(0);
-                appendAuthorSurname(rs, authors);
-                currentISBN = isbn;
-                firstEntry = false;
-            } else {
-                appendAuthorSurname(rs, authors);
+            if (books.size() > pageSize) {
+                return new RecordPage<>(books.subList(0, pageSize), books.get(pageSize - 1).getIsbn());
             }
+            return new RecordPage<>(books, null);
         }
+    }
 
-        // Handle the last book entry
-        if (currentISBN != -1) {
-            output.append("\n\t").append(formatAuthors(authors.toString()));
+    // Get one page of books matching the search terms, best match first, skipping the given number of matches
+    public Page searchCatalogue(String terms, Integer offset, int pageSize) {
+        StringBuilder output = new StringBuilder(offset == null ? "Search Catalogue: " : "Search Catalogue (continued): ")
+                .append(terms.trim());
+        Integer nextToken = null;
+        try {
+            RecordPage<BookRecord> page = findMatchingBooks(terms, offset, pageSize);
+            if (offset == null && page.getRecords().isEmpty()) {
+                output.append("\n\t(No matching books)");
+            }
+            for (BookRecord book : page.getRecords()) {
+                appendCatalogueEntry(output, book);
+            }
+            nextToken = page.getNextToken();
+        } catch (SQLException e) {
+            LibraryUtils.showErrorMessage(parent, e.getMessage(), "Search Catalogue");
         }
+        return new Page(output.toString(), nextToken);
     }
 
-    // Process a single book
-    private void processBookEntry(ResultSet rs, StringBuilder output) throws SQLException {
-        int isbn = rs.getInt("ISBN");
-        String title = rs.getString("Title").trim();
-        int editionNo = rs.getInt("Edition_No");
-        int numOfCop = rs.getInt("NumOfCop");
-        int numLeft = rs.getInt("NumLeft");
-        output.append("\n\n").append(isbn).append(": ").append(title).append("\n")
-                .append("\tEdition: ").append(editionNo)
-                .append(" - Number of copies: ").append(numOfCop)
-                .append(" - Copies left: ").append(numLeft);
-    }
+    // Find one page of books whose title or author names start with every search term, or whose title nearly matches
+    public RecordPage<BookRecord> findMatchingBooks(String terms, Integer offset, int pageSize) throws SQLException {
+        String searchQuery = "WITH q AS (SELECT to_tsquery('simple', ?) AS Query, ?::text AS Term) SELECT b.ISBN, b.Title, b.Edition_No, b.NumOfCop, b.NumLeft, l.Surnames, l.AuthorIds FROM q, Book b LEFT JOIN Book_Author_List l ON b.ISBN = l.ISBN WHERE b.ISBN > 0 AND (b.Search @@ q.Query OR q.Term <% b.Title::text) ORDER BY ts_rank(b.Search, q.Query) + word_similarity(q.Term, b.Title::text) DESC, b.ISBN OFFSET ? LIMIT ?";
 
-    // Append author information to authors StringBuilder
-    private void appendAuthorSurname(ResultSet rs, StringBuilder authors) throws SQLException {
-        String authorSurname = rs.getString("Surname");
-        if (authorSurname != null) {
-            if (authors.length() > 0) {
-                authors.append(", ");
+        // Nothing to match on, such as a search made only of punctuation
+        String prefixQuery = toPrefixQuery(terms);
+        if (prefixQuery == null) {
+            return new RecordPage<>(new ArrayList<>(), null);
+        }
+
+        // Ranked matches have no key to continue from, so the token counts the matches already shown
+        int skip = offset == null ? 0 : offset;
+        if (skip < 0) {
+            throw new IllegalArgumentException("Offset must not be negative: " + skip);
+        }
+        try (Connection conn = router.getReplicaConnection()) {
+            // Get one more book than needed to tell whether another page follows
+            List<BookRecord> books;
+            PreparedStatement stmt = StatementCache.prepare(conn, "book.search", searchQuery);
+            stmt.setString(1, prefixQuery);
+            stmt.setString(2, terms.trim());
+            stmt.setInt(3, skip);
+            stmt.setInt(4, pageSize + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                books = readBooks(rs);
+            }
+
+            if (books.size() > pageSize) {
+                return new RecordPage<>(books.subList(0, pageSize), skip + pageSize);
             }
-            authors.append(authorSurname.trim());
+            return new RecordPage<>(books, null);
         }
     }
 
-    // Append author summary to output
-    private void appendAuthors(StringBuilder output, StringBuilder authors) {
-        if (authors.toString().contains(",")) {
-            output.append("\n\tAuthors: ").append(authors);
-        } else if (authors.length() > 0) {
-            output.append("\n\tAuthor: ").append(authors);
-        } else {
-            output.append("\n\t(no authors)");
+    // Turn search terms into a text query requiring a word starting with each term, or null if there are none
+    private static String toPrefixQuery(String terms) {
+        StringBuilder query = new StringBuilder();
+        for (String word : terms.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                query.append(query.length() == 0 ? "" : " & ").append(word).append(":*");
+            }
         }
+        return query.length() == 0 ? null : query.toString();
     }
 
     // Get all loaned books
     public String showLoanedBooks() {
-        StringBuilder output = new StringBuilder("Show Loaned Books:");
-        String loanedBooksQuery = "SELECT b.ISBN, b.Title, b.Edition_No, b.NumOfCop, b.NumLeft, (SELECT STRING_AGG(a.Surname, ', ')  FROM Author a  JOIN Book_Author ba ON a.AuthorId = ba.AuthorId  WHERE ba.ISBN = b.ISBN) AS Authors, c.CustomerID, c.L_Name, c.F_Name, c.City FROM Book b JOIN Cust_Book cb ON b.ISBN = cb.ISBN JOIN Customer c ON cb.CustomerID = c.CustomerID ORDER BY b.ISBN, c.CustomerID";
+        return LibraryUtils.render(this::showLoanedBooks);
+    }
 
-        // Allow reading of locked items
+    // Write every loaned book and its borrowers to out one book at a time
+    public void showLoanedBooks(Appendable out) throws IOException {
+        StringBuilder entry = new StringBuilder("Show Loaned Books:");
+        out.append(entry);
         try {
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
-
-            // Get data
-            try (PreparedStatement stmt = conn.prepareStatement(loanedBooksQuery)) {
-                ResultSet rs = stmt.executeQuery();
-                processLoanedBooksData(rs, output);
+            int loanedBooks = forEachLoanedBook(loanedBook -> {
+                entry.setLength(0);
+                appendLoanedBook(entry, loanedBook);
+                out.append(entry);
+            });
+            if (loanedBooks == 0) {
+                out.append("\n(No Loaned Books)");
             }
-
-            // Revert allowing the reading of locked items
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
         } catch (SQLException e) {
             LibraryUtils.showErrorMessage(parent, e.getMessage(), "Show Loaned Books");
         }
-        return output.toString();
     }
 
-    // Process data to get information about all loaned books
-    private void processLoanedBooksData(ResultSet rs, StringBuilder output) throws SQLException {
-        int currentISBN = -1;
-        StringBuilder borrowers = new StringBuilder();
-        boolean bookHasBorrowers = false;
+    // Find every book out on loan with its borrowers, in ISBN order
+    public List<LoanedBook> findLoanedBooks() throws SQLException {
+        List<LoanedBook> loanedBooks = new ArrayList<>();
+        forEachLoanedBook(loanedBooks::add);
+        return loanedBooks;
+    }
+
+    // Pass every book out on loan to the sink with its borrowers in ISBN order, returning the number of books
+    public <E extends Exception> int forEachLoanedBook(RecordSink<LoanedBook, E> sink) throws SQLException, E {
+        String loanedBooksQuery = "SELECT b.ISBN, b.Title, b.Edition_No, b.NumOfCop, b.NumLeft, l.Surnames, l.AuthorIds, c.CustomerID, c.L_Name, c.F_Name, c.City FROM Book b JOIN Cust_Book cb ON b.ISBN = cb.ISBN JOIN Customer c ON cb.CustomerID = c.CustomerID LEFT JOIN Book_Author_List l ON b.ISBN = l.ISBN ORDER BY b.ISBN, c.CustomerID";
+
+        try (Connection conn = router.getReadConnection()) {
+            // Read through a server-side cursor, a batch of rows at a time, which needs a transaction
+            conn.setAutoCommit(false);
+
+            // Get data
+            int loanedBooks;
+            PreparedStatement stmt = StatementCache.prepare(conn, "book.loaned", loanedBooksQuery);
+            stmt.setFetchSize(LibraryUtils.FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                loanedBooks = readLoanedBooks(rs, sink);
+            }
+            conn.commit();
+            return loanedBooks;
+        }
+    }
+
+    // Read book rows joined with their borrowers, passing each book to the sink once its borrowers are read
+    private <E extends Exception> int readLoanedBooks(ResultSet rs, RecordSink<LoanedBook, E> sink)
+            throws SQLException, E {
+        int loanedBooks = 0;
+        List<CustomerRecord> borrowers = new ArrayList<>();
+        BookRecord book = null;
 
         while (rs.next()) {
             int isbn = rs.getInt("ISBN");
-            if (isbn != currentISBN) {
-                if (currentISBN != -1) {
-                    output.append(borrowers);
+            if (book == null || isbn != book.getIsbn()) {
+                if (book != null) {
+                    sink.accept(new LoanedBook(book, borrowers));
+                    loanedBooks++;
+                    borrowers = new ArrayList<>();
                 }
-                currentISBN = isbn;
-                borrowers.setLength(0);
-                processBookEntry(rs, output);
-                output.append("\n\t").append(formatAuthors(rs.getString("Authors")))
-                        .append("\n\tBorrowers:");
+                book = new BookRecord(isbn, rs.getString("Title").trim(), rs.getInt("Edition_No"),
+                        rs.getInt("NumOfCop"), rs.getInt("NumLeft"), readSurnames(rs.getArray("Surnames")),
+                        readAuthorIDs(rs.getArray("AuthorIds")));
             }
-            processBorrowerEntry(rs, borrowers);
-            bookHasBorrowers = true;
+            String city = rs.getString("City");
+            borrowers.add(new CustomerRecord(rs.getInt("CustomerID"), rs.getString("L_Name").trim(),
+                    rs.getString("F_Name").trim(), city == null ? null : city.trim(), new ArrayList<>()));
         }
 
-        if (bookHasBorrowers) {
-            output.append(borrowers);
+        // Handle the last book entry
+        if (book != null) {
+            sink.accept(new LoanedBook(book, borrowers));
+            loanedBooks++;
         }
+        LibraryMetrics.addRows(loanedBooks);
+        return loanedBooks;
+    }
 
-        if (output.length() == "Show Loaned Books:".length()) {
-            output.append("\n(No Loaned Books)");
+    // Read an aggregated array of surnames, which is null for a book without authors
+    private List<String> readSurnames(Array array) throws SQLException {
+        List<String> surnames = new ArrayList<>();
+        if (array != null) {
+            for (Object surname : (Object[]) array.getArray()) {
+                surnames.add(((String) surname).trim());
+            }
         }
+        return surnames;
     }
 
-    // Process single borrower entry
-    private void processBorrowerEntry(ResultSet rs, StringBuilder borrowers) throws SQLException {
-        int customerID = rs.getInt("CustomerID");
-        String lastName = rs.getString("L_Name").trim();
-        String firstName = rs.getString("F_Name").trim();
-        String city = rs.getString("City").trim();
+    // Read an aggregated array of author IDs, which is null for a book without authors
+    private List<Integer> readAuthorIDs(Array array) throws SQLException {
+        List<Integer> authorIDs = new ArrayList<>();
+        if (array != null) {
+            for (Object authorID : (Object[]) array.getArray()) {
+                authorIDs.add((Integer) authorID);
+            }
+        }
+        return authorIDs;
+    }
 
-        borrowers.append("\n\t\t").append(customerID).append(": ").append(lastName).append(", ")
-                .append(firstName).append(" - ").append(city);
+    // Append a loaned book and its borrowers to output
+    private void appendLoanedBook(StringBuilder output, LoanedBook loanedBook) {
+        BookRecord book = loanedBook.getBook();
+        output.append("\n\n").append(book.getIsbn()).append(": ").append(book.getTitle()).append("\n")
+                .append("\tEdition: ").append(book.getEditionNo())
+                .append(" - Number of copies: ").append(book.getNumOfCop())
+                .append(" - Copies left: ").append(book.getNumLeft())
+                .append("\n\t").append(formatAuthors(book.getAuthorSurnames()))
+                .append("\n\tBorrowers:");
+        for (CustomerRecord borrower : loanedBook.getBorrowers()) {
+            output.append("\n\t\t").append(borrower.getCustomerID()).append(": ").append(borrower.getLastName())
+                    .append(", ").append(borrower.getFirstName()).append(" - ")
+                    .append(borrower.getCity() == null ? "(no city)" : borrower.getCity());
+        }
     }
 
     // Delete book by ISBN
     public String deleteBook(int isbn) {
         StringBuilder output = new StringBuilder("Delete Book:\n");
+        try {
+            DeleteResult result = removeBook(isbn);
+            switch (result.getOutcome()) {
+                case DEFAULT_ENTRY:
+                    output.append("\tCannot delete default book entry");
+                    break;
+                case ON_LOAN:
+                    output.append("\tCannot delete book with ISBN ").append(isbn)
+                            .append(" because it is currently loaned out");
+                    break;
+                case JUST_LOANED:
+                    output.append("\tCannot delete book with ISBN ").append(isbn)
+                            .append(" because it has just been loaned out");
+                    break;
+                case DELETED:
+                    output.append("\tBook with ISBN ").append(isbn).append(" deleted");
+                    break;
+                default:
+                    output.append("\tNo such ISBN: ").append(isbn);
+                    break;
+            }
+        } catch (SQLException e) {
+            LibraryUtils.showErrorMessage(parent, e.getMessage(), "Delete Book");
+        }
+        return output.toString();
+    }
+
+    // Delete a book by ISBN unless it is the default entry or out on loan
+    public DeleteResult removeBook(int isbn) throws SQLException {
 
         // Check if requested book is default entry
         if (isbn == 0) {
-            output.append("\tCannot delete default book entry");
-            return output.toString();
+            return new DeleteResult(DeleteResult.Outcome.DEFAULT_ENTRY, isbn);
         }
 
         String deleteQuery = "DELETE FROM Book WHERE ISBN = ?";
 
-        // Begin transaction and disable auto commit
-        try {
-            conn.setAutoCommit(false);
-
-            // Check if book is loaned
-            if (isBookLoaned(isbn)) {
-                conn.rollback();
-                output.append("\tCannot delete book with ISBN ").append(isbn)
-                        .append(" because it is currently loaned out");
-                return output.toString();
-            }
+        // Begin transaction and disable auto commit, which the pool restores on release
+        try (Connection conn = router.getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+
+                // Check if book is loaned
+                int loanCount = countLoans(conn, isbn);
+                if (loanCount > 0) {
+                    conn.rollback();
+                    LibraryMetrics.markRolledBack();
+                    return new DeleteResult(DeleteResult.Outcome.ON_LOAN, isbn, loanCount);
+                }
 
-            // Do deletion
-            try (PreparedStatement statement = conn.prepareStatement(deleteQuery)) {
+                // Do deletion
+                PreparedStatement statement = StatementCache.prepare(conn, "book.delete", deleteQuery);
                 statement.setInt(1, isbn);
                 int rowsAffected = statement.executeUpdate();
-                handleDeletionOutput(output, isbn, rowsAffected);
 
                 // Complete transaction
                 conn.commit();
-            }
-        } catch (SQLException e) {
-            try {
+                cache.invalidateBook(isbn);
+                if (rowsAffected > 0) {
+                    lookups.removeBook(isbn);
+                }
+                return new DeleteResult(rowsAffected > 0 ? DeleteResult.Outcome.DELETED
+                        : DeleteResult.Outcome.NOT_FOUND, isbn);
+            } catch (SQLException e) {
+                if (!FOREIGN_KEY_VIOLATION.equals(e.getSQLState())) {
+                    throw LibraryUtils.rollback(conn, e);
+                }
+
+                // A loan recorded since the check blocks the deletion
                 conn.rollback();
-                output.append("\tCannot delete book with ISBN ").append(isbn)
-                        .append(" because it has just been loaned out");
-            } catch (SQLException ex) {
-                LibraryUtils.showErrorMessage(parent, ex.getMessage(), "Delete Book");
+                LibraryMetrics.markRolledBack();
+                return new DeleteResult(DeleteResult.Outcome.JUST_LOANED, isbn);
             }
         }
-
-        // Enable auto commit
-        finally {
-            LibraryUtils.restoreAutoCommit(parent, conn, "Delete Book");
-        }
-        return output.toString();
     }
 
-    // Check if book is currently loaned and cannot be deleted
-    private boolean isBookLoaned(int isbn) throws SQLException {
+    // Count current loans of a book, which cannot be deleted while any remain
+    private int countLoans(Connection conn, int isbn) throws SQLException {
         String checkCustBookQuery = "SELECT COUNT(*) AS Count FROM Cust_Book WHERE ISBN = ?";
-        try (PreparedStatement checkStmt = conn.prepareStatement(checkCustBookQuery)) {
-            checkStmt.setInt(1, isbn);
-            ResultSet rs = checkStmt.executeQuery();
+        PreparedStatement checkStmt = StatementCache.prepare(conn, "book.loanCount", checkCustBookQuery);
+        checkStmt.setInt(1, isbn);
+        try (ResultSet rs = checkStmt.executeQuery()) {
             rs.next();
-            return rs.getInt("Count") > 0;
-        }
-    }
-
-    // Handle deletion output
-    private void handleDeletionOutput(StringBuilder output, int isbn, int rowsAffected) throws SQLException {
-        if (rowsAffected > 0) {
-            output.append("\tBook with ISBN ").append(isbn).append(" deleted");
-        } else {
-            output.append("\tNo such ISBN: ").append(isbn);
+            return rs.getInt("Count");
         }
     }
 
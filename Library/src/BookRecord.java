@@ -0,0 +1,54 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A book with its authors' surnames and IDs in AuthorSeqNo order.
+ */
+public class BookRecord {
+    private final int isbn;
+    private final String title;
+    private final int editionNo;
+    private final int numOfCop;
+    private final int numLeft;
+    private final List<String> authorSurnames;
+    private final List<Integer> authorIDs;
+
+    public BookRecord(int isbn, String title, int editionNo, int numOfCop, int numLeft, List<String> authorSurnames,
+            List<Integer> authorIDs) {
+        this.isbn = isbn;
+        this.title = title;
+        this.editionNo = editionNo;
+        this.numOfCop = numOfCop;
+        this.numLeft = numLeft;
+        this.authorSurnames = Collections.unmodifiableList(authorSurnames);
+        this.authorIDs = Collections.unmodifiableList(authorIDs);
+    }
+
+    public int getIsbn() {
+        return isbn;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public int getEditionNo() {
+        return editionNo;
+    }
+
+    public int getNumOfCop() {
+        return numOfCop;
+    }
+
+    public int getNumLeft() {
+        return numLeft;
+    }
+
+    public List<String> getAuthorSurnames() {
+        return authorSurnames;
+    }
+
+    public List<Integer> getAuthorIDs() {
+        return authorIDs;
+    }
+}
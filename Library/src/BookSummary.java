@@ -0,0 +1,20 @@
+/**
+ * The ISBN and title of a book, as listed against an author or a borrower.
+ */
+public class BookSummary {
+    private final int isbn;
+    private final String title;
+
+    public BookSummary(int isbn, String title) {
+        this.isbn = isbn;
+        this.title = title;
+    }
+
+    public int getIsbn() {
+        return isbn;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+}
@@ -0,0 +1,108 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Bulk import and export of the library tables as CSV using PostgreSQL COPY.
+ *
+ * Each table is read from or written to <table>.csv in a directory, streamed
+ * through the driver's copy API straight from or to a file channel. Tables
+ * are always processed in foreign key order, and each import or export runs
+ * in a single transaction.
+ */
+public class BulkCopy {
+    // Tables in foreign key order, parents first, with their CSV columns
+    private static final String[][] TABLES = {
+            { "book", "isbn, title, edition_no, numofcop, numleft" },
+            { "author", "authorid, name, surname" },
+            { "customer", "customerid, l_name, f_name, city" },
+            { "book_author", "isbn, authorid, authorseqno" },
+            { "cust_book", "isbn, duedate, customerid" } };
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Connection conn;
+
+    public BulkCopy(Connection conn) {
+        this.conn = conn;
+    }
+
+    // Copy every <table>.csv found in the directory into its table, returning rows copied per table
+    public Map<String, Long> importTables(Path directory, boolean deferConstraints) throws IOException, SQLException {
+        Map<String, Long> rowsByTable = new LinkedHashMap<>();
+        CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            // Only constraints declared DEFERRABLE are affected; the rest are still checked per row
+            if (deferConstraints) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("SET CONSTRAINTS ALL DEFERRED");
+                }
+            }
+
+            for (String[] table : TABLES) {
+                Path file = directory.resolve(table[0] + ".csv");
+                if (!Files.exists(file)) {
+                    continue;
+                }
+                String sql = "COPY " + table[0] + " (" + table[1] + ") FROM STDIN WITH (FORMAT csv, HEADER true)";
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+                        InputStream in = new BufferedInputStream(Channels.newInputStream(channel), BUFFER_SIZE)) {
+                    rowsByTable.put(table[0], copy.copyIn(sql, in, BUFFER_SIZE));
+                }
+            }
+            conn.commit();
+        } catch (IOException | SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return rowsByTable;
+    }
+
+    // Write every table to <table>.csv in the directory from one consistent snapshot
+    public Map<String, Long> exportTables(Path directory) throws IOException, SQLException {
+        Map<String, Long> rowsByTable = new LinkedHashMap<>();
+        CopyManager copy = conn.unwrap(PGConnection.class).getCopyAPI();
+        Files.createDirectories(directory);
+        boolean autoCommit = conn.getAutoCommit();
+        int isolation = conn.getTransactionIsolation();
+        conn.setAutoCommit(false);
+        conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+        try {
+            for (String[] table : TABLES) {
+                Path file = directory.resolve(table[0] + ".csv");
+                String sql = "COPY " + table[0] + " (" + table[1] + ") TO STDOUT WITH (FORMAT csv, HEADER true)";
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                        OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)) {
+                    rowsByTable.put(table[0], copy.copyOut(sql, out));
+                }
+            }
+            conn.commit();
+        } catch (IOException | SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+            conn.setTransactionIsolation(isolation);
+        }
+        return rowsByTable;
+    }
+}
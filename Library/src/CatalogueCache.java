@@ -0,0 +1,128 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-through cache of book records and the rendered catalogue.
+ *
+ * Every change to cached data bumps a data version. Readers note the version
+ * before querying the database and only store what they loaded if the version
+ * is still the same, so a load that raced with a borrow, return or delete can
+ * never put stale rows back into the cache. Book records are kept in least
+ * recently used order up to a fixed capacity.
+ */
+public class CatalogueCache {
+    private final int maxBooks;
+    private final Map<Integer, BookRecord> books;
+    private long version;
+    private String catalogue;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    public CatalogueCache(int maxBooks) {
+        this.maxBooks = maxBooks;
+        this.books = new LinkedHashMap<Integer, BookRecord>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, BookRecord> eldest) {
+                if (size() <= CatalogueCache.this.maxBooks) {
+                    return false;
+                }
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    // Current data version, to be passed back when storing loaded data
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    // Get a cached book, or null if it must be loaded
+    public synchronized BookRecord getBook(int isbn) {
+        BookRecord book = books.get(isbn);
+        if (book != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return book;
+    }
+
+    // Store a loaded book if nothing has changed since loading began
+    public synchronized void putBook(BookRecord book, long loadedVersion) {
+        if (loadedVersion == version) {
+            books.put(book.getIsbn(), book);
+        }
+    }
+
+    // Get the rendered catalogue, or null if it must be loaded
+    public synchronized String getCatalogue() {
+        if (catalogue != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return catalogue;
+    }
+
+    // Store a loaded catalogue and its books if nothing has changed since loading began
+    public synchronized void putCatalogue(String rendered, List<BookRecord> catalogueBooks, long loadedVersion) {
+        if (loadedVersion != version || catalogueBooks.size() > maxBooks) {
+            return;
+        }
+        catalogue = rendered;
+        for (BookRecord book : catalogueBooks) {
+            books.put(book.getIsbn(), book);
+        }
+    }
+
+    // Drop a book whose copies, details or existence have changed
+    public synchronized void invalidateBook(int isbn) {
+        version++;
+        catalogue = null;
+        if (books.remove(isbn) != null) {
+            invalidations++;
+        }
+    }
+
+    // Drop every book written by an author whose details have changed
+    public synchronized void invalidateAuthor(int authorID) {
+        version++;
+        catalogue = null;
+        Iterator<BookRecord> iterator = books.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getAuthorIDs().contains(authorID)) {
+                iterator.remove();
+                invalidations++;
+            }
+        }
+    }
+
+    // Drop everything, for bulk changes such as imports
+    public synchronized void invalidateAll() {
+        version++;
+        catalogue = null;
+        invalidations += books.size();
+        books.clear();
+    }
+
+    // Summarise hit rate, evictions and invalidations
+    public synchronized String getStats() {
+        StringBuilder output = new StringBuilder("Catalogue Cache:");
+        long total = hits + misses;
+        output.append("\n\t").append(hits).append(" hits, ").append(misses).append(" misses");
+        if (total > 0) {
+            output.append(" (").append(Math.round(100.0 * hits / total)).append("% hit rate)");
+        }
+        output.append("\n\t").append(books.size()).append(" books cached, catalogue ")
+                .append(catalogue == null ? "not cached" : "cached").append(", data version ").append(version)
+                .append("\n\t").append(evictions).append(" evictions, ").append(invalidations)
+                .append(" invalidations");
+        return output.toString();
+    }
+}
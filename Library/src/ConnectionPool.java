@@ -0,0 +1,349 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded pool of JDBC connections.
+ *
+ * Callers borrow a connection with getConnection() and hand it back by
+ * closing it. Idle connections are validated before reuse, evicted once they
+ * have been idle for too long, and retired once they reach their maximum
+ * lifetime. Borrowing blocks for at most the acquire timeout. Each physical
+ * connection keeps its own StatementCache, reachable by unwrapping a borrowed
+ * connection.
+ *
+ * A read-only pool sets every connection read-only at the server, at the
+ * default READ COMMITTED isolation, once when it is opened. Borrowers cannot
+ * change either setting, so reads need no per-call setup.
+ */
+public class ConnectionPool {
+    // Connections used more recently than this are not re-validated on borrow
+    private static final long VALIDATION_GRACE_MILLIS = 1000;
+
+    private final String url;
+    private final Properties properties;
+    private final int maxSize;
+    private final long acquireTimeoutMillis;
+    private final long idleTimeoutMillis;
+    private final long maxLifetimeMillis;
+    private final int validationTimeoutSeconds;
+    private final boolean readOnly;
+
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService evictor;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, String userid, String password, int maxSize, long acquireTimeoutMillis,
+            long idleTimeoutMillis, long maxLifetimeMillis, int validationTimeoutSeconds) {
+        this(url, userid, password, maxSize, acquireTimeoutMillis, idleTimeoutMillis, maxLifetimeMillis,
+                validationTimeoutSeconds, false);
+    }
+
+    public ConnectionPool(String url, String userid, String password, int maxSize, long acquireTimeoutMillis,
+            long idleTimeoutMillis, long maxLifetimeMillis, int validationTimeoutSeconds, boolean readOnly) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1: " + maxSize);
+        }
+        this.url = url;
+        this.properties = new Properties();
+        properties.setProperty("user", userid);
+        properties.setProperty("password", password);
+        if (readOnly) {
+            // Make setReadOnly apply to the whole session, including auto-commit statements
+            properties.setProperty("readOnlyMode", "always");
+        }
+        this.maxSize = maxSize;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.readOnly = readOnly;
+        this.permits = new Semaphore(maxSize, true);
+
+        // Periodically close connections that have sat idle or lived too long
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictionInterval = Math.max(1000, Math.min(idleTimeoutMillis, maxLifetimeMillis) / 2);
+        evictor.scheduleWithFixedDelay(this::evictStale, evictionInterval, evictionInterval, TimeUnit.MILLISECONDS);
+    }
+
+    // Borrow a connection, waiting up to the acquire timeout for one to become free
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            if (!permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + acquireTimeoutMillis
+                        + " ms waiting for a database connection (pool size " + maxSize + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        // Reuse the most recently returned connection that is still healthy
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    return pooled.lease();
+                }
+                discard(pooled);
+            }
+            return openConnection().lease();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    // Number of connections currently borrowed
+    public int getActiveCount() {
+        return maxSize - permits.availablePermits();
+    }
+
+    // Number of connections waiting in the pool
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    // Close the idle connections and refuse further borrowing; borrowed ones are closed as they come back
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            discard(pooled);
+        }
+    }
+
+    // Open a connection with the pool's settings that the pool neither bounds nor manages, for a caller
+    // such as a monitor that must not wait behind borrowers; the caller closes it
+    public Connection openDedicatedConnection() throws SQLException {
+        return openPhysical();
+    }
+
+    // Open a new pooled connection
+    private PooledConnection openConnection() throws SQLException {
+        return new PooledConnection(openPhysical());
+    }
+
+    // Open a new physical connection, read-only if the pool is
+    private Connection openPhysical() throws SQLException {
+        Connection physical = DriverManager.getConnection(url, properties);
+        if (readOnly) {
+            try {
+                physical.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                physical.setReadOnly(true);
+            } catch (SQLException e) {
+                physical.close();
+                throw e;
+            }
+        }
+        return physical;
+    }
+
+    // Check an idle connection before handing it out again
+    private boolean isUsable(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+        if (now - pooled.createdAt >= maxLifetimeMillis) {
+            return false;
+        }
+        if (now - pooled.lastUsed < VALIDATION_GRACE_MILLIS) {
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Take back a borrowed connection, resetting any state the borrower changed
+    private void release(PooledConnection pooled) {
+        try {
+            boolean keep = !closed && System.currentTimeMillis() - pooled.createdAt < maxLifetimeMillis
+                    && resetState(pooled);
+            if (keep) {
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+
+                // Close it here if the pool closed after the check above and missed it
+                if (closed && idle.remove(pooled)) {
+                    discard(pooled);
+                }
+            } else {
+                discard(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    // Roll back unfinished work and restore the defaults the models expect
+    private boolean resetState(PooledConnection pooled) {
+        Connection physical = pooled.physical;
+        try {
+            if (physical.isClosed()) {
+                return false;
+            }
+            if (!physical.getAutoCommit()) {
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (physical.isReadOnly() != readOnly) {
+                physical.setReadOnly(readOnly);
+            }
+            if (pooled.isolationChanged) {
+                physical.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                pooled.isolationChanged = false;
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    // Close idle connections past their idle timeout or maximum lifetime
+    private void evictStale() {
+        long now = System.currentTimeMillis();
+        for (PooledConnection pooled : idle) {
+            boolean stale = now - pooled.lastUsed >= idleTimeoutMillis
+                    || now - pooled.createdAt >= maxLifetimeMillis;
+
+            // Only close it if a borrower has not claimed it in the meantime
+            if (stale && idle.remove(pooled)) {
+                discard(pooled);
+            }
+        }
+    }
+
+    // Close a physical connection
+    private void discard(PooledConnection pooled) {
+        pooled.cache.close();
+        try {
+            pooled.physical.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing pooled connection: " + e.getMessage());
+        }
+    }
+
+    // Would this call change the isolation level or make the session writable
+    private static boolean isSessionChange(Method method, Object[] args) {
+        switch (method.getName()) {
+            case "setTransactionIsolation":
+                return !Integer.valueOf(Connection.TRANSACTION_READ_COMMITTED).equals(args[0]);
+            case "setReadOnly":
+                return Boolean.FALSE.equals(args[0]);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * A physical connection owned by the pool.
+     */
+    private class PooledConnection {
+        private final Connection physical;
+        private final StatementCache cache;
+        private final long createdAt;
+        private volatile long lastUsed;
+
+        // Checking the isolation level costs a round trip, so track changes instead
+        private boolean isolationChanged;
+
+        private PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.cache = new StatementCache(physical);
+            this.createdAt = System.currentTimeMillis();
+            this.lastUsed = createdAt;
+        }
+
+        // Wrap the physical connection so that closing it returns it to the pool
+        private Connection lease() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, new Lease(this));
+        }
+    }
+
+    /**
+     * A single borrowing of a pooled connection. Once closed, the lease can no
+     * longer reach the physical connection.
+     */
+    private class Lease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean released;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        release(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled" + pooled.physical;
+                default:
+                    break;
+            }
+            if (released) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            if (args != null && args[0] == StatementCache.class) {
+                if (method.getName().equals("unwrap")) {
+                    return pooled.cache;
+                } else if (method.getName().equals("isWrapperFor")) {
+                    return true;
+                }
+            }
+            if (readOnly && isSessionChange(method, args)) {
+                throw new SQLException("Connections from a read-only pool keep their isolation and read-only setting");
+            }
+            if (method.getName().equals("setTransactionIsolation")) {
+                pooled.isolationChanged = true;
+            }
+            try {
+                return method.invoke(pooled.physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Chooses which pool a database call borrows its connection from.
+ *
+ * Transactions that write, and reads that must see their own writes, borrow
+ * from the primary pool with getConnection(). Lookups and listings borrow
+ * from a separate read-only pool with getReadConnection(), so they never
+ * change the settings of a connection a borrow or return is using, and never
+ * wait behind one for a connection.
+ *
+ * Reads that can tolerate a little staleness, such as the catalogue and
+ * lookups, use getReplicaConnection() instead. That spreads them over any
+ * configured read replicas, whose lag is sampled in the background over a
+ * connection of its own, so sampling goes on while every pooled connection
+ * to a replica is borrowed. A replica is skipped while its lag is above the
+ * limit, while it cannot be reached, and until it has replayed the WAL position the primary had reached
+ * when the last write made through this router committed, so a desk always
+ * sees its own loans. The position is noted as soon as a transaction commits,
+ * before the caller invalidates anything a replica read could refill with the
+ * old rows. A write made in auto-commit mode must call noteWrite() itself
+ * before invalidating. With no replica available the read falls back to the
+ * primary's read-only pool.
+ */
+public class ConnectionRouter {
+    // WAL replayed so far, and replication delay in milliseconds, or zero once everything received is replayed
+    private static final String LAG_QUERY = "SELECT pg_last_wal_replay_lsn()::text AS ReplayLsn,"
+            + " CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+            + " ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END AS LagMillis";
+    private static final String WRITE_POSITION_QUERY = "SELECT pg_current_wal_lsn()::text AS WriteLsn";
+
+    private final ConnectionPool primary;
+    private final ConnectionPool reads;
+    private final List<Replica> replicas;
+    private final long maxLagMillis;
+    private final ScheduledExecutorService lagSampler;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final LongAdder primaryFallbacks = new LongAdder();
+
+    // Primary WAL position after the last write made through this router
+    private final AtomicLong lastWriteLsn = new AtomicLong();
+
+    public ConnectionRouter(ConnectionPool primary, ConnectionPool reads) {
+        this(primary, reads, Collections.emptyList(), 0, 0);
+    }
+
+    public ConnectionRouter(ConnectionPool primary, ConnectionPool reads, List<ConnectionPool> replicaPools,
+            long maxLagMillis, long lagCheckMillis) {
+        if (!reads.isReadOnly()) {
+            throw new IllegalArgumentException("Reads must be routed to a read-only pool");
+        }
+        List<Replica> replicas = new ArrayList<>();
+        for (ConnectionPool pool : replicaPools) {
+            if (!pool.isReadOnly()) {
+                throw new IllegalArgumentException("Replica pools must be read-only");
+            }
+            replicas.add(new Replica(pool));
+        }
+        this.primary = primary;
+        this.reads = reads;
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.maxLagMillis = maxLagMillis;
+
+        if (replicas.isEmpty()) {
+            this.lagSampler = null;
+        } else {
+            this.lagSampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "replica-lag-sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            lagSampler.scheduleWithFixedDelay(this::sampleLag, 0, lagCheckMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Borrow a read-write connection; each commit on it notes how far replicas must catch up
+    public Connection getConnection() throws SQLException {
+        Connection conn = primary.getConnection();
+        if (replicas.isEmpty()) {
+            return conn;
+        }
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new WriteLease(conn));
+    }
+
+    // Note the primary's WAL position after a write committed on one of its connections
+    public void noteWrite(Connection conn) {
+        if (replicas.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(WRITE_POSITION_QUERY);
+                ResultSet rs = stmt.executeQuery()) {
+            rs.next();
+            lastWriteLsn.accumulateAndGet(parseLsn(rs.getString("WriteLsn")), Math::max);
+        } catch (SQLException e) {
+            // A failed transaction has written nothing to wait for
+        }
+    }
+
+    // Borrow a read-only connection on the primary, for reads that must be current
+    public Connection getReadConnection() throws SQLException {
+        return reads.getConnection();
+    }
+
+    // Borrow a read-only connection on an up-to-date replica, or on the primary if there is none
+    public Connection getReplicaConnection() throws SQLException {
+        int count = replicas.size();
+        int start = count == 0 ? 0 : Math.floorMod(nextReplica.getAndIncrement(), count);
+        for (int i = 0; i < count; i++) {
+            Replica replica = replicas.get((start + i) % count);
+            if (!replica.isCurrent(lastWriteLsn.get(), maxLagMillis)) {
+                continue;
+            }
+            try {
+                Connection conn = replica.pool.getConnection();
+                replica.reads.increment();
+                return conn;
+            } catch (SQLException e) {
+                replica.markUnreachable(e);
+            }
+        }
+        if (count > 0) {
+            primaryFallbacks.increment();
+        }
+        return reads.getConnection();
+    }
+
+    public ConnectionPool getPrimary() {
+        return primary;
+    }
+
+    public ConnectionPool getReads() {
+        return reads;
+    }
+
+    // Summarise replica lag and where replica reads went
+    public String getStats() {
+        StringBuilder output = new StringBuilder("Read Replicas:");
+        if (replicas.isEmpty()) {
+            return output.append("\n\t(None configured; all reads use the primary)").toString();
+        }
+        for (Replica replica : replicas) {
+            output.append("\n\t").append(replica.pool.getUrl()).append(": ");
+            if (replica.lagMillis < 0) {
+                output.append("unreachable");
+            } else {
+                output.append(replica.lagMillis).append(" ms behind");
+            }
+            output.append(", ").append(replica.reads.sum()).append(" reads");
+        }
+        output.append("\n\t").append(primaryFallbacks.sum()).append(" reads fell back to the primary (lag over ")
+                .append(maxLagMillis).append(" ms, unreachable, or after a write)");
+        return output.toString();
+    }
+
+    // Close every pool
+    public void close() {
+        if (lagSampler != null) {
+            lagSampler.shutdownNow();
+        }
+        for (Replica replica : replicas) {
+            replica.closeSampler();
+            replica.pool.close();
+        }
+        reads.close();
+        primary.close();
+    }
+
+    // Measure how far behind each replica is, on a connection outside its pool
+    private void sampleLag() {
+        for (Replica replica : replicas) {
+            try {
+                if (replica.sampler == null) {
+                    replica.sampler = replica.pool.openDedicatedConnection();
+                }
+            } catch (SQLException e) {
+                replica.markUnreachable(e);
+                continue;
+            }
+            try (PreparedStatement stmt = replica.sampler.prepareStatement(LAG_QUERY);
+                    ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+
+                // A server that is not a standby has nothing to replay, so never waits for a write
+                String replayLsn = rs.getString("ReplayLsn");
+                replica.replayLsn = replayLsn == null ? Long.MAX_VALUE : parseLsn(replayLsn);
+                replica.lagMillis = Math.round(rs.getDouble("LagMillis"));
+            } catch (SQLException e) {
+                replica.markUnreachable(e);
+
+                // Reconnect on the next sample
+                replica.closeSampler();
+            }
+        }
+    }
+
+    // Read a WAL position written as two hexadecimal halves, such as 16/B374D848
+    private static long parseLsn(String lsn) {
+        int slash = lsn.indexOf('/');
+        return (Long.parseLong(lsn.substring(0, slash), 16) << 32) | Long.parseLong(lsn.substring(slash + 1), 16);
+    }
+
+    /**
+     * A read replica and what was last measured about it.
+     */
+    private static class Replica {
+        private final ConnectionPool pool;
+        private final LongAdder reads = new LongAdder();
+
+        // Negative until the first successful sample, and whenever the replica cannot be reached
+        private volatile long lagMillis = -1;
+
+        // WAL position the replica has replayed up to
+        private volatile long replayLsn;
+
+        // Connection the lag sampler alone uses, opened on the first sample
+        private volatile Connection sampler;
+
+        private Replica(ConnectionPool pool) {
+            this.pool = pool;
+        }
+
+        // Can this replica serve a read that must see writes up to the given WAL position
+        private boolean isCurrent(long writeLsn, long maxLagMillis) {
+            return lagMillis >= 0 && lagMillis <= maxLagMillis && replayLsn >= writeLsn;
+        }
+
+        private void closeSampler() {
+            Connection conn = sampler;
+            sampler = null;
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    System.err.println("Error closing lag sampler connection: " + e.getMessage());
+                }
+            }
+        }
+
+        private void markUnreachable(SQLException e) {
+            if (lagMillis >= 0) {
+                System.err.println("Read replica " + pool.getUrl() + " unavailable: " + e.getMessage());
+            }
+            lagMillis = -1;
+        }
+    }
+
+    /**
+     * A borrowed read-write connection that notes the primary's WAL position
+     * as each transaction commits, and when it is returned in auto-commit mode.
+     */
+    private class WriteLease implements InvocationHandler {
+        private final Connection conn;
+
+        private WriteLease(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    break;
+            }
+            // Anything uncommitted at release is rolled back, so only auto-commit writes need noting then
+            if (method.getName().equals("close") && !conn.isClosed() && conn.getAutoCommit()) {
+                noteWrite(conn);
+            }
+            Object result;
+            try {
+                result = method.invoke(conn, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+            if (method.getName().equals("commit")) {
+                noteWrite(conn);
+            }
+            return result;
+        }
+    }
+}
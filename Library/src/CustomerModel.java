@@ -1,16 +1,24 @@
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 import javax.swing.JFrame;
 
 public class CustomerModel {
+    // SQLSTATE raised when a loan recorded since the check still refers to the customer
+    private static final String FOREIGN_KEY_VIOLATION = "23503";
+
     private final JFrame parent;
-    private final Connection conn;
+    private final ConnectionRouter router;
+    private final LookupIndexes lookups;
 
-    public CustomerModel(JFrame parent, Connection conn) {
+    public CustomerModel(JFrame parent, ConnectionRouter router, LookupIndexes lookups) {
         this.parent = parent;
-        this.conn = conn;
+        this.router = router;
+        this.lookups = lookups;
     }
 
     // Get customer by ID
@@ -23,20 +31,15 @@ public class CustomerModel {
             return output.toString();
         }
 
-        String customerQuery = "SELECT c.CustomerID, c.L_Name, c.F_Name, c.City, b.ISBN, b.Title FROM Customer c LEFT JOIN Cust_Book cb ON c.CustomerID = cb.CustomerID LEFT JOIN Book b ON cb.ISBN = b.ISBN WHERE c.CustomerID = ? ORDER BY b.ISBN";
-
-        // Allow reading of locked items
         try {
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
-
-            // Get data
-            try (PreparedStatement stmt = conn.prepareStatement(customerQuery)) {
-                stmt.setInt(1, customerID);
-                ResultSet rs = stmt.executeQuery();
+            CustomerRecord customer = findCustomer(customerID);
 
-                processCustomerData(rs, output, customerID);
+            // Requested customer does not exist
+            if (customer == null) {
+                output.append("\tNo such customer ID: ").append(customerID);
+            } else {
+                appendCustomerInfo(output, customer);
             }
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
         } catch (SQLException e) {
             LibraryUtils.showErrorMessage(parent, e.getMessage(), "Show Customer");
         }
@@ -44,196 +47,280 @@ public class CustomerModel {
         return output.toString();
     }
 
+    // Find a customer and the books they have borrowed, or null if there is no such customer
+    public CustomerRecord findCustomer(int customerID) throws SQLException {
+        if (customerID == 0) {
+            return new CustomerRecord(0, "Default", "Customer", null, new ArrayList<>());
+        }
+
+        String customerQuery = "SELECT c.CustomerID, c.L_Name, c.F_Name, c.City, b.ISBN, b.Title FROM Customer c LEFT JOIN Cust_Book cb ON c.CustomerID = cb.CustomerID LEFT JOIN Book b ON cb.ISBN = b.ISBN WHERE c.CustomerID = ? ORDER BY b.ISBN";
+
+        try (Connection conn = router.getReplicaConnection()) {
+            // Get data
+            CustomerRecord customer;
+            PreparedStatement stmt = StatementCache.prepare(conn, "customer.show", customerQuery);
+            stmt.setInt(1, customerID);
+            try (ResultSet rs = stmt.executeQuery()) {
+                customer = readCustomer(rs, customerID);
+            }
+            return customer;
+        }
+    }
+
     // Append default customer information to output
     private void appendDefaultCustomer(StringBuilder output) {
         output.append("\t0: Default, Customer - (no city)\n\t(No books borrowed)");
     }
 
-    // Process data to extract customer information
-    private void processCustomerData(ResultSet rs, StringBuilder output, int customerID) throws SQLException {
-
-        // Initialise borrowed books summary
-        StringBuilder books = new StringBuilder();
-
-        // Initialise borrowed books counter variables
-        boolean customerFound = false;
-        int bookCount = 0;
+    // Read a customer's rows joined with their borrowed books, or null if there are none
+    private CustomerRecord readCustomer(ResultSet rs, int customerID) throws SQLException {
+        String firstName = null;
+        String lastName = null;
+        String city = null;
+        List<BookSummary> books = new ArrayList<>();
 
         // Iterate through data entries
         while (rs.next()) {
-
-            // Append new customer information
-            if (!customerFound) {
-                appendCustomerInfo(rs, output, customerID);
-                customerFound = true;
+            if (firstName == null) {
+                firstName = rs.getString("F_Name").trim();
+                lastName = rs.getString("L_Name").trim();
+                city = rs.getString("City");
             }
 
-            // Append new borrowed book information
-            bookCount += appendBookInfo(rs, books);
+            // Customers without loans have a single row with no book
+            String title = rs.getString("Title");
+            if (title != null) {
+                books.add(new BookSummary(rs.getInt("ISBN"), title.trim()));
+            }
         }
-
-        // Finalise customer information with complete borrowed book summary
-        appendBookSummary(output, customerFound, bookCount, books, customerID);
+        if (firstName == null) {
+            return null;
+        }
+        LibraryMetrics.addRows(1);
+        return new CustomerRecord(customerID, lastName, firstName, city == null ? null : city.trim(), books);
     }
 
-    // Append customer information to output
-    private void appendCustomerInfo(ResultSet rs, StringBuilder output, int customerID)
-            throws SQLException {
-        String firstName = rs.getString("F_Name");
-        String lastName = rs.getString("L_Name");
-        String city = rs.getString("City");
-        if (city == null) {
-            city = "(no city)";
+    // Append customer information and borrowed book summary to output
+    private void appendCustomerInfo(StringBuilder output, CustomerRecord customer) {
+        output.append("\t").append(customer.getCustomerID()).append(": ").append(customer.getLastName())
+                .append(", ").append(customer.getFirstName()).append(" - ")
+                .append(customer.getCity() == null ? "(no city)" : customer.getCity());
+        List<BookSummary> books = customer.getBorrowed();
+        if (books.isEmpty()) {
+            output.append("\n\t(No books borrowed)");
+            return;
+        }
+        output.append(books.size() == 1 ? "\n\tBook Borrowed:" : "\n\tBooks Borrowed:");
+        for (BookSummary book : books) {
+            output.append("\n\t\t").append(book.getIsbn()).append(" - ").append(book.getTitle());
         }
-        String customerFullName = lastName.trim() + ", " + firstName.trim();
-        output.append("\t").append(customerID).append(": ").append(customerFullName)
-                .append(" - ").append(city.trim());
     }
 
-    // Append book information to books StringBuilder
-    private int appendBookInfo(ResultSet rs, StringBuilder books) throws SQLException {
-        int bookCount = 0;
-        int isbn = rs.getInt("ISBN");
-        String title = rs.getString("Title");
-        if (title != null) {
-            books.append("\n\t\t").append(isbn).append(" - ").append(title.trim());
-            bookCount++;
-        }
-        return bookCount;
+    // Get all customers
+    public String showAllCustomers() {
+        return LibraryUtils.render(this::showAllCustomers);
     }
 
-    // Finalise output with books StringBuilder
-    private void appendBookSummary(StringBuilder output, boolean customerFound, int bookCount,
-            StringBuilder books, int customerID) {
-        if (!customerFound) {
-            output.append("\tNo such customer ID: ").append(customerID);
-        } else if (bookCount > 0) {
-            output.append(bookCount == 1 ? "\n\tBook Borrowed:" : "\n\tBooks Borrowed:").append(books);
-        } else {
-            output.append("\n\t(No books borrowed)");
+    // Write every customer to out one at a time
+    public void showAllCustomers(Appendable out) throws IOException {
+        StringBuilder entry = new StringBuilder("Show All Customers:");
+        out.append(entry);
+        try {
+            forEachCustomer(customer -> {
+                entry.setLength(0);
+                appendCustomerEntry(entry, customer);
+                out.append(entry);
+            });
+        } catch (SQLException e) {
+            LibraryUtils.showErrorMessage(parent, e.getMessage(), "Show All Customers");
         }
     }
 
-    // Get all customers
-    public String showAllCustomers() {
-        StringBuilder output = new StringBuilder("Show All Customers:");
+    // Find every customer in ID order, without their loans
+    public List<CustomerRecord> findAllCustomers() throws SQLException {
+        List<CustomerRecord> customers = new ArrayList<>();
+        forEachCustomer(customers::add);
+        return customers;
+    }
+
+    // Pass every customer to the sink in ID order, without their loans, as the rows are read
+    public <E extends Exception> void forEachCustomer(RecordSink<CustomerRecord, E> sink) throws SQLException, E {
         String customerQuery = "SELECT CustomerID, L_Name, F_Name, City FROM Customer ORDER BY CustomerID";
 
-        // Allow reading of locked items
-        try {
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+        try (Connection conn = router.getReplicaConnection()) {
+            // Read through a server-side cursor, a batch of rows at a time, which needs a transaction
+            conn.setAutoCommit(false);
 
             // Get data
-            try (PreparedStatement stmt = conn.prepareStatement(customerQuery)) {
-                ResultSet rs = stmt.executeQuery();
-                processCustomersData(rs, output);
+            PreparedStatement stmt = StatementCache.prepare(conn, "customer.all", customerQuery);
+            stmt.setFetchSize(LibraryUtils.FETCH_SIZE);
+            try (ResultSet rs = stmt.executeQuery()) {
+                readCustomers(rs, sink);
+            }
+            conn.commit();
+        }
+    }
+
+    // Get one page of customers following the given ID, or the first page if the token is null
+    public Page showCustomersPage(Integer afterCustomerID, int pageSize) {
+        StringBuilder output = new StringBuilder(
+                afterCustomerID == null ? "Show All Customers:" : "Show All Customers (continued):");
+        Integer nextToken = null;
+        try {
+            RecordPage<CustomerRecord> page = findCustomersPage(afterCustomerID, pageSize);
+            for (CustomerRecord customer : page.getRecords()) {
+                appendCustomerEntry(output, customer);
             }
-            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            nextToken = page.getNextToken();
         } catch (SQLException e) {
             LibraryUtils.showErrorMessage(parent, e.getMessage(), "Show All Customers");
         }
-
-        return output.toString();
+        return new Page(output.toString(), nextToken);
     }
 
-    // Process data to get information about all customers
-    private void processCustomersData(ResultSet rs, StringBuilder output) throws SQLException {
-        while (rs.next()) {
-            processCustomerEntry(rs, output);
+    // Find one page of customers following the given ID, or the first page if the token is null
+    public RecordPage<CustomerRecord> findCustomersPage(Integer afterCustomerID, int pageSize) throws SQLException {
+        String pageQuery = "SELECT CustomerID, L_Name, F_Name, City FROM Customer WHERE CustomerID > ? ORDER BY CustomerID LIMIT ?";
+
+        try (Connection conn = router.getReplicaConnection()) {
+            // Get one more customer than needed to tell whether another page follows
+            List<CustomerRecord> customers;
+            PreparedStatement stmt = StatementCache.prepare(conn, "customer.page", pageQuery);
+            stmt.setInt(1, afterCustomerID == null ? -1 : afterCustomerID);
+            stmt.setInt(2, pageSize + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                customers = readCustomers(rs);
+            }
+
+            if (customers.size() > pageSize) {
+                return new RecordPage<>(customers.subList(0, pageSize), customers.get(pageSize - 1).getCustomerID());
+            }
+            return new RecordPage<>(customers, null);
         }
     }
 
-    // Process a single customer
-    private void processCustomerEntry(ResultSet rs, StringBuilder output) throws SQLException {
-        int customerID = rs.getInt("CustomerID");
-        String lastName = rs.getString("L_Name");
-        String firstName = rs.getString("F_Name");
-        String city = rs.getString("City");
-        if (city == null) {
-            city = "(no city)";
+    // Read customer rows without their loans
+    private List<CustomerRecord> readCustomers(ResultSet rs) throws SQLException {
+        List<CustomerRecord> customers = new ArrayList<>();
+        readCustomers(rs, customers::add);
+        return customers;
+    }
+
+    // Pass each customer row to the sink as it is read
+    private <E extends Exception> void readCustomers(ResultSet rs, RecordSink<CustomerRecord, E> sink)
+            throws SQLException, E {
+        int count = 0;
+        while (rs.next()) {
+            String firstName = rs.getString("F_Name");
+            String city = rs.getString("City");
+            sink.accept(new CustomerRecord(rs.getInt("CustomerID"), rs.getString("L_Name").trim(),
+                    firstName == null ? null : firstName.trim(), city == null ? null : city.trim(),
+                    new ArrayList<>()));
+            count++;
         }
+        LibraryMetrics.addRows(count);
+    }
 
-        output.append("\n\t").append(customerID).append(": ")
-                .append(lastName.trim()).append(", ").append(firstName.trim())
-                .append(" - ").append(city);
+    // Append a single customer to a listing
+    private void appendCustomerEntry(StringBuilder output, CustomerRecord customer) {
+        output.append("\n\t").append(customer.getCustomerID()).append(": ")
+                .append(customer.getLastName()).append(", ").append(customer.getFirstName())
+                .append(" - ").append(customer.getCity() == null ? "(no city)" : customer.getCity());
     }
 
     // Delete customer by ID
     public String deleteCus(int customerID) {
         StringBuilder output = new StringBuilder("Delete Customer:\n");
+        try {
+            DeleteResult result = removeCustomer(customerID);
+            switch (result.getOutcome()) {
+                case DEFAULT_ENTRY:
+                    output.append("\tCannot delete default customer entry");
+                    break;
+                case ON_LOAN:
+                    if (result.getLoanCount() == 1) {
+                        output.append("\tCannot delete customer with ID ").append(customerID)
+                                .append(" because they currently have a book loaned out");
+                    } else {
+                        output.append("\tCannot delete customer with ID ").append(customerID)
+                                .append(" because they currently have ").append(result.getLoanCount())
+                                .append(" books loaned out");
+                    }
+                    break;
+                case JUST_LOANED:
+                    output.append("\tCannot delete customer with ID ").append(customerID)
+                            .append(" because they have just borrowed a book");
+                    break;
+                case DELETED:
+                    output.append("\tCustomer with ID ").append(customerID).append(" deleted");
+                    break;
+                default:
+                    output.append("\tNo such customer ID: ").append(customerID);
+                    break;
+            }
+        } catch (SQLException e) {
+            LibraryUtils.showErrorMessage(parent, e.getMessage(), "Delete Customer");
+        }
+        return output.toString();
+    }
+
+    // Delete a customer by ID unless it is the default entry or has books on loan
+    public DeleteResult removeCustomer(int customerID) throws SQLException {
 
         // Check if requested customer is default entry
         if (customerID == 0) {
-            output.append("\tCannot delete default customer entry");
-            return output.toString();
+            return new DeleteResult(DeleteResult.Outcome.DEFAULT_ENTRY, customerID);
         }
 
         String deleteQuery = "DELETE FROM Customer WHERE CustomerID = ?";
 
-        // Begin transaction and disable auto commit
-        try {
-            conn.setAutoCommit(false);
-
-            // Check if customer has loaned books
-            int numBorrowed = numBorrowedBooks(customerID);
-            if (numBorrowed > 0) {
-                conn.rollback();
-                String message;
-                if (numBorrowed == 1) {
-                    message = "\tCannot delete customer with ID " + customerID
-                            + " because they currently have a book loaned out";
-                } else {
-                    message = "\tCannot delete customer with ID " + customerID
-                            + " because they currently have " + numBorrowed + " books loaned out";
+        // Begin transaction and disable auto commit, which the pool restores on release
+        try (Connection conn = router.getConnection()) {
+            try {
+                conn.setAutoCommit(false);
+
+                // Check if customer has loaned books
+                int numBorrowed = numBorrowedBooks(conn, customerID);
+                if (numBorrowed > 0) {
+                    conn.rollback();
+                    LibraryMetrics.markRolledBack();
+                    return new DeleteResult(DeleteResult.Outcome.ON_LOAN, customerID, numBorrowed);
                 }
-                output.append(message);
-                return output.toString();
-            }
 
-            // Do deletion
-            try (PreparedStatement stmt = conn.prepareStatement(deleteQuery)) {
+                // Do deletion
+                PreparedStatement stmt = StatementCache.prepare(conn, "customer.delete", deleteQuery);
                 stmt.setInt(1, customerID);
                 int rowsAffected = stmt.executeUpdate();
-                handleDeletionOutput(output, customerID, rowsAffected);
 
                 // Complete transaction
                 conn.commit();
-            }
-        } catch (SQLException e) {
-            try {
+                if (rowsAffected > 0) {
+                    lookups.removeCustomer(customerID);
+                }
+                return new DeleteResult(rowsAffected > 0 ? DeleteResult.Outcome.DELETED
+                        : DeleteResult.Outcome.NOT_FOUND, customerID);
+            } catch (SQLException e) {
+                if (!FOREIGN_KEY_VIOLATION.equals(e.getSQLState())) {
+                    throw LibraryUtils.rollback(conn, e);
+                }
+
+                // A loan recorded since the check blocks the deletion
                 conn.rollback();
-                output.append("\tCannot delete customer with ID ").append(customerID)
-                        .append(" because they have just borrowed a book");
-            } catch (SQLException ex) {
-                LibraryUtils.showErrorMessage(parent, ex.getMessage(), "Delete Book");
+                LibraryMetrics.markRolledBack();
+                return new DeleteResult(DeleteResult.Outcome.JUST_LOANED, customerID);
             }
         }
-
-        // Enable auto commit
-        finally {
-            LibraryUtils.restoreAutoCommit(parent, conn, "Delete Customer");
-        }
-        return output.toString();
     }
 
     // Check if customer has loaned books
-    private int numBorrowedBooks(int customerID) throws SQLException {
+    private int numBorrowedBooks(Connection conn, int customerID) throws SQLException {
         String checkCustBookQuery = "SELECT COUNT(*) AS Count FROM Cust_Book WHERE CustomerID = ?";
-        try (PreparedStatement checkStmt = conn.prepareStatement(checkCustBookQuery)) {
-            checkStmt.setInt(1, customerID);
-            ResultSet rs = checkStmt.executeQuery();
+        PreparedStatement checkStmt = StatementCache.prepare(conn, "customer.loanCount", checkCustBookQuery);
+        checkStmt.setInt(1, customerID);
+        try (ResultSet rs = checkStmt.executeQuery()) {
             rs.next();
             return rs.getInt("Count");
         }
     }
 
-    // Handle output of deletion
-    private void handleDeletionOutput(StringBuilder output, int customerID, int rowsAffected) {
-        if (rowsAffected > 0) {
-            output.append("\tCustomer with ID ").append(customerID).append(" deleted");
-        } else {
-            output.append("\tNo such customer ID: ").append(customerID);
-        }
-    }
-
 }
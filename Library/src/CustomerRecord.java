@@ -0,0 +1,44 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A customer with the books they have borrowed in ISBN order. The city is null
+ * if it was never recorded. Listings of many customers leave the book list
+ * empty.
+ */
+public class CustomerRecord {
+    private final int customerID;
+    private final String lastName;
+    private final String firstName;
+    private final String city;
+    private final List<BookSummary> borrowed;
+
+    public CustomerRecord(int customerID, String lastName, String firstName, String city,
+            List<BookSummary> borrowed) {
+        this.customerID = customerID;
+        this.lastName = lastName;
+        this.firstName = firstName;
+        this.city = city;
+        this.borrowed = Collections.unmodifiableList(borrowed);
+    }
+
+    public int getCustomerID() {
+        return customerID;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getCity() {
+        return city;
+    }
+
+    public List<BookSummary> getBorrowed() {
+        return borrowed;
+    }
+}
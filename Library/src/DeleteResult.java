@@ -0,0 +1,41 @@
+/**
+ * The outcome of deleting a book, author or customer.
+ */
+public class DeleteResult {
+    public enum Outcome {
+        DELETED,
+        NOT_FOUND,
+        // The default entry with ID 0 is never deleted
+        DEFAULT_ENTRY,
+        // The book or customer has loans, counted in getLoanCount()
+        ON_LOAN,
+        // A loan was recorded while the deletion was running
+        JUST_LOANED
+    }
+
+    private final Outcome outcome;
+    private final int id;
+    private final int loanCount;
+
+    public DeleteResult(Outcome outcome, int id, int loanCount) {
+        this.outcome = outcome;
+        this.id = id;
+        this.loanCount = loanCount;
+    }
+
+    public DeleteResult(Outcome outcome, int id) {
+        this(outcome, id, 0);
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getLoanCount() {
+        return loanCount;
+    }
+}
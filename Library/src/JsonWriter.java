@@ -0,0 +1,124 @@
+/**
+ * Builds a JSON document in a StringBuilder.
+ *
+ * Commas between members and elements are inserted automatically, so callers
+ * only open and close containers and write names and values in order.
+ */
+public class JsonWriter {
+    private final StringBuilder output = new StringBuilder();
+
+    // Whether the next member or element is the first in its container
+    private boolean first = true;
+
+    public JsonWriter beginObject() {
+        separate();
+        output.append('{');
+        first = true;
+        return this;
+    }
+
+    public JsonWriter endObject() {
+        output.append('}');
+        first = false;
+        return this;
+    }
+
+    public JsonWriter beginArray() {
+        separate();
+        output.append('[');
+        first = true;
+        return this;
+    }
+
+    public JsonWriter endArray() {
+        output.append(']');
+        first = false;
+        return this;
+    }
+
+    // Write a member name; the next call writes its value
+    public JsonWriter name(String name) {
+        separate();
+        appendString(name);
+        output.append(':');
+        first = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) {
+        separate();
+        if (value == null) {
+            output.append("null");
+        } else {
+            appendString(value);
+        }
+        first = false;
+        return this;
+    }
+
+    public JsonWriter value(long value) {
+        separate();
+        output.append(value);
+        first = false;
+        return this;
+    }
+
+    public JsonWriter value(Integer value) {
+        separate();
+        output.append(value == null ? "null" : value.toString());
+        first = false;
+        return this;
+    }
+
+    public JsonWriter value(boolean value) {
+        separate();
+        output.append(value);
+        first = false;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return output.toString();
+    }
+
+    // Add a comma unless this is the first item in its container
+    private void separate() {
+        if (!first) {
+            output.append(',');
+        }
+    }
+
+    // Append a quoted string, escaping quotes, backslashes and control characters
+    private void appendString(String value) {
+        output.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    output.append("\\\"");
+                    break;
+                case '\\':
+                    output.append("\\\\");
+                    break;
+                case '\n':
+                    output.append("\\n");
+                    break;
+                case '\r':
+                    output.append("\\r");
+                    break;
+                case '\t':
+                    output.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        output.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        output.append(c);
+                    }
+                    break;
+            }
+        }
+        output.append('"');
+    }
+}
@@ -0,0 +1,36 @@
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+
+/**
+ * A database failure reported by LibraryService, naming the operation that
+ * failed.
+ */
+public class LibraryException extends Exception {
+    private final String operation;
+
+    public LibraryException(String operation, SQLException cause) {
+        super(operation + " failed: " + cause.getMessage(), cause);
+        this.operation = operation;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+
+    // SQLSTATE of the underlying error, if the server sent one
+    public String getSQLState() {
+        return getCause().getSQLState();
+    }
+
+    // Whether the same call may succeed if retried, such as after a deadlock, serialization failure or timeout
+    public boolean isTransient() {
+        String state = getSQLState();
+        return getCause() instanceof SQLTransientException
+                || (state != null && (state.startsWith("40") || state.startsWith("08")));
+    }
+}
@@ -0,0 +1,169 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and outcome counters for every library operation.
+ *
+ * LibraryModel and LibraryService run each operation through record(), which
+ * times it and notes whether it threw. While an operation runs, the models
+ * report the rows they read and any deliberate rollback to it through the
+ * static addRows() and markRolledBack(). A failure they catch and report
+ * themselves rather than throw is flagged with markFailed(), or, when the
+ * application is about to exit, recorded at once with recordFailedBeforeExit().
+ * The same counts are therefore kept whichever front end made the call.
+ * Each operation is registered as a JMX MBean named
+ * library:type=Operation,name=<operation> the first time it is used, next to
+ * library:type=Metrics for the text snapshot.
+ */
+public class LibraryMetrics implements LibraryMetricsMBean {
+    private static final LibraryMetrics INSTANCE = new LibraryMetrics();
+
+    // The operation running on this thread, if any
+    private static final ThreadLocal<Scope> CURRENT = new ThreadLocal<>();
+
+    private final Map<String, OperationMetrics> operations = new ConcurrentSkipListMap<>();
+
+    private LibraryMetrics() {
+        register("library:type=Metrics", this);
+    }
+
+    // The metrics shared by every model and service in this JVM
+    public static LibraryMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    // Time a call and record its outcome under the given operation name
+    public <T, E extends Exception> T record(String operation, Call<T, E> call) throws E {
+        Scope outer = CURRENT.get();
+        Scope scope = new Scope(operation, outer);
+        CURRENT.set(scope);
+        boolean failed = true;
+        try {
+            T result = call.run();
+            failed = false;
+            return result;
+        } finally {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+            scope.finish(failed || scope.failed);
+        }
+    }
+
+    // Count rows read by the operation running on this thread
+    public static void addRows(long rows) {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.rows += rows;
+        }
+    }
+
+    // Note that the operation running on this thread backed out without changing anything
+    public static void markRolledBack() {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.rolledBack = true;
+        }
+    }
+
+    // Note that the operation running on this thread failed, though it returned normally
+    public static void markFailed() {
+        Scope scope = CURRENT.get();
+        if (scope != null) {
+            scope.failed = true;
+        }
+    }
+
+    // Record every operation running on this thread as failed now, as the application is about to exit
+    public static void recordFailedBeforeExit() {
+        for (Scope scope = CURRENT.get(); scope != null; scope = scope.outer) {
+            scope.finish(true);
+        }
+    }
+
+    // Get the metrics for an operation, registering them with JMX when first seen
+    public OperationMetrics getOperation(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        if (metrics != null) {
+            return metrics;
+        }
+        OperationMetrics created = new OperationMetrics(operation);
+        metrics = operations.putIfAbsent(operation, created);
+        if (metrics == null) {
+            register("library:type=Operation,name=" + operation, created);
+            metrics = created;
+        }
+        return metrics;
+    }
+
+    @Override
+    public String getSnapshot() {
+        StringBuilder output = new StringBuilder("Operation Metrics:");
+        if (operations.isEmpty()) {
+            output.append("\n\t(No operations recorded)");
+        }
+        for (OperationMetrics metrics : operations.values()) {
+            output.append("\n\t").append(metrics);
+        }
+        return output.toString();
+    }
+
+    @Override
+    public void reset() {
+        for (OperationMetrics metrics : operations.values()) {
+            metrics.reset();
+        }
+    }
+
+    // Register an MBean, carrying on without it if JMX refuses
+    private static void register(String name, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(mbean, objectName);
+            }
+        } catch (JMException e) {
+            System.err.println("Could not register " + name + " with JMX: " + e.getMessage());
+        }
+    }
+
+    /**
+     * An operation to be timed.
+     */
+    public interface Call<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    /**
+     * What the models have reported about the operation in progress.
+     */
+    private static class Scope {
+        private final String operation;
+        private final Scope outer;
+        private final long start = System.nanoTime();
+        private long rows;
+        private boolean rolledBack;
+        private boolean failed;
+        private boolean recorded;
+
+        private Scope(String operation, Scope outer) {
+            this.operation = operation;
+            this.outer = outer;
+        }
+
+        // Record the operation's outcome, once
+        private void finish(boolean failed) {
+            if (!recorded) {
+                recorded = true;
+                INSTANCE.getOperation(operation).record(System.nanoTime() - start, failed, rolledBack, rows);
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * JMX view of all library operation metrics.
+ */
+public interface LibraryMetricsMBean {
+    String getSnapshot();
+
+    void reset();
+}
@@ -1,103 +1,330 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
 import javax.swing.*;
 
 public class LibraryModel {
-    private final Connection conn;
+    // Rows shown per page of a paged listing
+    private static final int PAGE_SIZE = LibraryService.PAGE_SIZE;
+
+    // Rows loaded into a new database, and again only when the file changes
+    private static final String SEED_FILE = "../../Data/library.data";
+    private static final String SEED_NAME = "library.data";
+
+    private final ConnectionRouter router;
+    private final CatalogueCache catalogueCache;
+    private final LookupIndexes lookups;
     private final BookModel bookModel;
     private final AuthorModel authorModel;
     private final CustomerModel customerModel;
     private final LoaningModel loaningModel;
+    private final LibraryService service;
+    private final LibraryMetrics metrics = LibraryMetrics.getInstance();
+    private final ModelExecutor background = new ModelExecutor("library-model");
 
     public LibraryModel(JFrame parent, String userid, String password) {
-        this.conn = LibraryUtils.setupDatabaseConnection(parent, userid, password);
-        this.bookModel = new BookModel(parent, conn);
-        this.authorModel = new AuthorModel(parent, conn);
-        this.customerModel = new CustomerModel(parent, conn);
-        this.loaningModel = new LoaningModel(parent, conn);
+        this.router = LibraryUtils.setupConnections(parent, userid, password);
+        this.catalogueCache = new CatalogueCache(LibraryService.CACHE_SIZE);
+        this.lookups = new LookupIndexes();
+        this.bookModel = new BookModel(parent, router, catalogueCache, lookups);
+        this.authorModel = new AuthorModel(parent, router, catalogueCache, lookups);
+        this.customerModel = new CustomerModel(parent, router, lookups);
+        this.loaningModel = new LoaningModel(parent, router, catalogueCache, lookups);
+        this.service = new LibraryService(router, catalogueCache, lookups);
 
         initialiseDatabase();
     }
 
+    // Headless access to the same connections and cache, for callers that want records rather than text
+    public LibraryService getService() {
+        return service;
+    }
+
+    // Migrate and seed the database, unless one query shows both were already done with these files, then
+    // build the lookup indexes in the background; suggestions are empty until they are ready. A failed
+    // migration leaves the seed unloaded, so the next start tries both again
     public void initialiseDatabase() {
-        executeSqlFromFile("../../Data/library.data");
+        try {
+            String seed = Files.readString(Paths.get(SEED_FILE));
+            String seedChecksum = SchemaMigrator.checksum(seed);
+            if (!isDatabaseCurrent(seedChecksum) && migrateSchema()) {
+                loadSeedData(seed, seedChecksum);
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); // Handle file reading exceptions
+        }
+        background.submit(() -> {
+            loadLookups();
+            return null;
+        });
+    }
+
+    private boolean isDatabaseCurrent(String seedChecksum) {
+        return metrics.record("checkDatabase", () -> {
+            try (Connection conn = router.getReadConnection()) {
+                return new SchemaMigrator(conn, Paths.get(SchemaMigrator.DIRECTORY)).isCurrent(SEED_NAME,
+                        seedChecksum);
+            } catch (IOException e) {
+                e.printStackTrace(); // Handle migration file reading exceptions
+                LibraryMetrics.markFailed();
+            } catch (SQLException e) {
+                e.printStackTrace(); // Check again by migrating
+                LibraryMetrics.markFailed();
+            }
+            return false;
+        });
+    }
+
+    // Apply any schema migrations this database has not had yet, returning whether all are now applied
+    public boolean migrateSchema() {
+        return metrics.record("migrateSchema", () -> {
+            try (Connection conn = router.getConnection()) {
+                System.out.println(new SchemaMigrator(conn, Paths.get(SchemaMigrator.DIRECTORY)).migrate());
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace(); // Handle migration file reading exceptions
+                LibraryMetrics.markFailed();
+            } catch (SQLException e) {
+                e.printStackTrace(); // Handle failed or edited migrations
+                LibraryMetrics.markFailed();
+            }
+            return false;
+        });
+    }
+
+    // Add the seed rows not already present, and remember the file once it has loaded without failures
+    private void loadSeedData(String seed, String seedChecksum) {
+        metrics.record("loadSeedData", () -> {
+            try (Connection conn = router.getConnection()) {
+                SqlScriptLoader.LoadReport report = new SqlScriptLoader(conn, true).load(new StringReader(seed));
+                catalogueCache.invalidateAll();
+                System.out.println(report);
+                if (report.getFailures() == 0) {
+                    new SchemaMigrator(conn, Paths.get(SchemaMigrator.DIRECTORY)).recordSeed(SEED_NAME,
+                            seedChecksum);
+                }
+            } catch (IOException e) {
+                e.printStackTrace(); // Handle file reading exceptions
+                LibraryMetrics.markFailed();
+            } catch (SQLException e) {
+                e.printStackTrace(); // Handle SQL execution exceptions
+                LibraryMetrics.markFailed();
+            }
+            return null;
+        });
+    }
+
+    // Type-ahead suggestions for the lookup dialogs, answered from memory
+    public LookupIndexes getLookups() {
+        return lookups;
+    }
+
+    // Build the lookup indexes from the database, catching up with the loans and deletes made meanwhile
+    public void loadLookups() {
+        metrics.record("loadLookups", () -> {
+            LookupIndexes.Rebuild rebuild = lookups.startRebuild();
+            try {
+                LookupIndex.Builder books = new LookupIndex.Builder();
+                bookModel.forEachCatalogueBook(book -> books.add(book.getIsbn(), book.getTitle(),
+                        book.getNumLeft()));
+                LookupIndex.Builder authors = new LookupIndex.Builder();
+                authorModel.forEachAuthor(author -> authors.add(author.getAuthorID(),
+                        author.getName() + " " + author.getSurname()));
+                LookupIndex.Builder customers = new LookupIndex.Builder();
+                customerModel.forEachCustomer(customer -> customers.add(customer.getCustomerID(),
+                        customer.getFirstName() + " " + customer.getLastName()));
+                LookupIndex bookIndex = books.build();
+                LookupIndex authorIndex = authors.build();
+                LookupIndex customerIndex = customers.build();
+
+                // Each pass reads again only the few books lent or returned during the one before
+                Set<Integer> reread;
+                while (!(reread = lookups.finishRebuild(rebuild, bookIndex, authorIndex, customerIndex)).isEmpty()) {
+                    for (int isbn : reread) {
+                        BookRecord book = bookModel.findBook(isbn);
+                        if (book != null) {
+                            bookIndex.setAvailable(isbn, book.getNumLeft());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace(); // Lookups still accept IDs typed in full
+                LibraryMetrics.markFailed();
+            } finally {
+                lookups.abandonRebuild(rebuild);
+            }
+            return null;
+        });
     }
 
     public String bookLookup(int isbn) {
-        return bookModel.bookLookup(isbn);
+        return metrics.record("bookLookup", () -> bookModel.bookLookup(isbn));
     }
 
+    // Listings can also be written straight to a sink as their rows are read, rather than returned whole
     public String showCatalogue() {
-        return bookModel.showCatalogue();
+        return metrics.record("showCatalogue", bookModel::showCatalogue);
+    }
+
+    public void showCatalogue(Appendable out) throws IOException {
+        metrics.record("showCatalogue", () -> {
+            bookModel.showCatalogue(out);
+            return null;
+        });
+    }
+
+    public Page showCataloguePage(Integer afterISBN) {
+        return metrics.record("showCataloguePage", () -> bookModel.showCataloguePage(afterISBN, PAGE_SIZE));
+    }
+
+    // Search titles and author names, a page of the best matches at a time
+    public Page searchCatalogue(String terms, Integer offset) {
+        return metrics.record("searchCatalogue", () -> bookModel.searchCatalogue(terms, offset, PAGE_SIZE));
     }
 
     public String showLoanedBooks() {
-        return bookModel.showLoanedBooks();
+        return metrics.record("showLoanedBooks", bookModel::showLoanedBooks);
+    }
+
+    public void showLoanedBooks(Appendable out) throws IOException {
+        metrics.record("showLoanedBooks", () -> {
+            bookModel.showLoanedBooks(out);
+            return null;
+        });
     }
 
     public String showAuthor(int authorID) {
-        return authorModel.showAuthor(authorID);
+        return metrics.record("showAuthor", () -> authorModel.showAuthor(authorID));
     }
 
     public String showAllAuthors() {
-        return authorModel.showAllAuthors();
+        return metrics.record("showAllAuthors", authorModel::showAllAuthors);
+    }
+
+    public void showAllAuthors(Appendable out) throws IOException {
+        metrics.record("showAllAuthors", () -> {
+            authorModel.showAllAuthors(out);
+            return null;
+        });
+    }
+
+    public Page showAuthorsPage(Integer afterAuthorID) {
+        return metrics.record("showAuthorsPage", () -> authorModel.showAuthorsPage(afterAuthorID, PAGE_SIZE));
     }
 
     public String showCustomer(int customerID) {
-        return customerModel.showCustomer(customerID);
+        return metrics.record("showCustomer", () -> customerModel.showCustomer(customerID));
     }
 
     public String showAllCustomers() {
-        return customerModel.showAllCustomers();
+        return metrics.record("showAllCustomers", customerModel::showAllCustomers);
+    }
+
+    public void showAllCustomers(Appendable out) throws IOException {
+        metrics.record("showAllCustomers", () -> {
+            customerModel.showAllCustomers(out);
+            return null;
+        });
+    }
+
+    public Page showCustomersPage(Integer afterCustomerID) {
+        return metrics.record("showCustomersPage", () -> customerModel.showCustomersPage(afterCustomerID, PAGE_SIZE));
     }
 
     public String borrowBook(int isbn, int customerID, int day, int month, int year) {
-        return loaningModel.borrowBook(isbn, customerID, day, month, year);
+        return metrics.record("borrowBook", () -> loaningModel.borrowBook(isbn, customerID, day, month, year));
     }
 
     public String returnBook(int isbn, int customerID) {
-        return loaningModel.returnBook(isbn, customerID);
+        return metrics.record("returnBook", () -> loaningModel.returnBook(isbn, customerID));
+    }
+
+    public LoanMode getLoanMode() {
+        return loaningModel.getMode();
+    }
+
+    public void setLoanMode(LoanMode mode) {
+        loaningModel.setMode(mode);
     }
 
     public void closeDBConnection() {
-        LibraryUtils.closeDBConnection(conn);
+        background.shutdown();
+        System.out.println(getStatistics());
+        LibraryUtils.closeConnections(router);
+    }
+
+    public String getStatistics() {
+        return StatementCache.getStats() + "\n\n" + QueryLog.getStats() + "\n\n" + catalogueCache.getStats()
+                + "\n\n" + lookups.getStats() + "\n\n" + router.getStats() + "\n\n" + metrics.getSnapshot();
     }
 
     public String deleteCus(int customerID) {
-        return customerModel.deleteCus(customerID);
+        return metrics.record("deleteCustomer", () -> customerModel.deleteCus(customerID));
     }
 
     public String deleteAuthor(int authorID) {
-        return authorModel.deleteAuthor(authorID);
+        return metrics.record("deleteAuthor", () -> authorModel.deleteAuthor(authorID));
     }
 
     public String deleteBook(int isbn) {
-        return bookModel.deleteBook(isbn);
+        return metrics.record("deleteBook", () -> bookModel.deleteBook(isbn));
     }
 
-    public void executeSqlFromFile(String filePath) {
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty() || line.trim().startsWith("--")) {
-                    continue; // Skip empty lines and comments
-                }
-                executeSql(line);
-            }
-        } catch (IOException e) {
-            e.printStackTrace(); // Handle file reading exceptions
+    // Import <table>.csv files from a directory with COPY
+    public String importData(String directory, boolean deferConstraints) {
+        String result = metrics.record("importData", () -> copyIn(directory, deferConstraints));
+
+        // Imported rows need adding to the lookup indexes
+        loadLookups();
+        return result;
+    }
+
+    private String copyIn(String directory, boolean deferConstraints) {
+        StringBuilder output = new StringBuilder("Import Data:");
+        try (Connection conn = router.getConnection()) {
+            Map<String, Long> rowsByTable = new BulkCopy(conn).importTables(Paths.get(directory), deferConstraints);
+            catalogueCache.invalidateAll();
+            appendRowCounts(output, rowsByTable, "imported");
+        } catch (IOException | SQLException e) {
+            e.printStackTrace(); // Handle copy exceptions
+            LibraryMetrics.markFailed();
+            output.append("\n\tImport failed: ").append(e.getMessage());
         }
+        return output.toString();
+    }
+
+    // Export every table to <table>.csv files in a directory with COPY
+    public String exportData(String directory) {
+        return metrics.record("exportData", () -> copyOut(directory));
     }
 
-    private void executeSql(String sql) {
-        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.execute();
-        } catch (SQLException e) {
-            e.printStackTrace(); // Handle SQL execution exceptions
+    private String copyOut(String directory) {
+        StringBuilder output = new StringBuilder("Export Data:");
+        try (Connection conn = router.getConnection()) {
+            Map<String, Long> rowsByTable = new BulkCopy(conn).exportTables(Paths.get(directory));
+            LibraryMetrics.addRows(rowsByTable.values().stream().mapToLong(Long::longValue).sum());
+            appendRowCounts(output, rowsByTable, "exported");
+        } catch (IOException | SQLException e) {
+            e.printStackTrace(); // Handle copy exceptions
+            LibraryMetrics.markFailed();
+            output.append("\n\tExport failed: ").append(e.getMessage());
+        }
+        return output.toString();
+    }
+
+    // Append rows copied per table to output
+    private void appendRowCounts(StringBuilder output, Map<String, Long> rowsByTable, String action) {
+        if (rowsByTable.isEmpty()) {
+            output.append("\n\t(No tables ").append(action).append(")");
+        }
+        for (Map.Entry<String, Long> entry : rowsByTable.entrySet()) {
+            output.append("\n\t").append(entry.getKey()).append(": ").append(entry.getValue())
+                    .append(" rows ").append(action);
         }
     }
 
@@ -0,0 +1,388 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An embedded HTTP server answering lookups and loans with JSON.
+ *
+ * Requests are served by the JDK's built-in HTTP server, each on its own
+ * virtual thread where the JVM supports them, and each LibraryService call
+ * borrows its own pooled connection. Endpoints:
+ *
+ *   GET    /books/{isbn}                         book lookup
+ *   GET    /books?after={isbn}&size={n}          catalogue page
+ *   GET    /books?q={terms}&after={n}&size={n}   search, best match first, after n matches
+ *   GET    /authors/{id}                         author lookup
+ *   GET    /authors?after={id}&size={n}          author page
+ *   GET    /customers/{id}                       customer lookup
+ *   GET    /customers?after={id}&size={n}        customer page
+ *   POST   /loans?isbn=&customer=&due=&mode=     borrow, due as yyyy-mm-dd
+ *   DELETE /loans?isbn=&customer=&mode=          return
+ *
+ * Loans default to the single round trip mode; mode=optimistic selects the
+ * optimistic mode.
+ */
+public class LibraryServer {
+    // Largest page a client may ask for
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private final LibraryService service;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public LibraryServer(LibraryService service, int port) throws IOException {
+        this.service = service;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = ModelExecutor.newVirtualThreadExecutor("library-http");
+        server.setExecutor(executor);
+        server.createContext("/books", exchange -> handle(exchange, this::books));
+        server.createContext("/authors", exchange -> handle(exchange, this::authors));
+        server.createContext("/customers", exchange -> handle(exchange, this::customers));
+        server.createContext("/loans", exchange -> handle(exchange, this::loans));
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    // Stop accepting requests, giving those in progress a moment to finish
+    public void stop() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // Serve on library.http.port, reading the database login from LIBRARY_DB_USER and LIBRARY_DB_PASSWORD
+    public static void main(String[] args) throws Exception {
+        int port = Integer.getInteger("library.http.port", 8080);
+        String userid = System.getenv("LIBRARY_DB_USER");
+        String password = System.getenv("LIBRARY_DB_PASSWORD");
+        if (userid == null || password == null) {
+            System.err.println("Set LIBRARY_DB_USER and LIBRARY_DB_PASSWORD to the database login");
+            System.exit(2);
+        }
+
+        LibraryService service = LibraryService.connect(userid, password);
+        LibraryServer libraryServer = new LibraryServer(service, port);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            libraryServer.stop();
+            service.close();
+        }, "library-http-shutdown"));
+        libraryServer.start();
+        System.out.println("Library server listening on port " + libraryServer.getPort());
+    }
+
+    // GET /books/{isbn} or GET /books
+    private Response books(HttpExchange exchange, String id, Map<String, String> query) throws LibraryException {
+        requireMethod(exchange, "GET");
+        if (id != null) {
+            BookRecord book = service.findBook(Integer.parseInt(id));
+            if (book == null) {
+                return Response.notFound("No such ISBN: " + id);
+            }
+            JsonWriter json = new JsonWriter();
+            writeBook(json, book);
+            return Response.ok(json);
+        }
+
+        String terms = query.get("q");
+        RecordPage<BookRecord> page = terms == null
+                ? service.getCataloguePage(getInteger(query, "after"), getPageSize(query))
+                : service.searchCatalogue(terms, getOffset(query, "after"), getPageSize(query));
+        JsonWriter json = new JsonWriter().beginObject().name("books").beginArray();
+        for (BookRecord book : page.getRecords()) {
+            writeBook(json, book);
+        }
+        json.endArray().name("next").value(page.getNextToken()).endObject();
+        return Response.ok(json);
+    }
+
+    // GET /authors/{id} or GET /authors
+    private Response authors(HttpExchange exchange, String id, Map<String, String> query) throws LibraryException {
+        requireMethod(exchange, "GET");
+        if (id != null) {
+            AuthorRecord author = service.findAuthor(Integer.parseInt(id));
+            if (author == null) {
+                return Response.notFound("No such author ID: " + id);
+            }
+            JsonWriter json = new JsonWriter();
+            writeAuthor(json, author, true);
+            return Response.ok(json);
+        }
+
+        RecordPage<AuthorRecord> page = service.getAuthorsPage(getInteger(query, "after"), getPageSize(query));
+        JsonWriter json = new JsonWriter().beginObject().name("authors").beginArray();
+        for (AuthorRecord author : page.getRecords()) {
+            writeAuthor(json, author, false);
+        }
+        json.endArray().name("next").value(page.getNextToken()).endObject();
+        return Response.ok(json);
+    }
+
+    // GET /customers/{id} or GET /customers
+    private Response customers(HttpExchange exchange, String id, Map<String, String> query)
+            throws LibraryException {
+        requireMethod(exchange, "GET");
+        if (id != null) {
+            CustomerRecord customer = service.findCustomer(Integer.parseInt(id));
+            if (customer == null) {
+                return Response.notFound("No such customer ID: " + id);
+            }
+            JsonWriter json = new JsonWriter();
+            writeCustomer(json, customer, true);
+            return Response.ok(json);
+        }
+
+        RecordPage<CustomerRecord> page = service.getCustomersPage(getInteger(query, "after"), getPageSize(query));
+        JsonWriter json = new JsonWriter().beginObject().name("customers").beginArray();
+        for (CustomerRecord customer : page.getRecords()) {
+            writeCustomer(json, customer, false);
+        }
+        json.endArray().name("next").value(page.getNextToken()).endObject();
+        return Response.ok(json);
+    }
+
+    // POST /loans to borrow, DELETE /loans to return
+    private Response loans(HttpExchange exchange, String id, Map<String, String> query) throws LibraryException {
+        int isbn = Integer.parseInt(require(query, "isbn"));
+        int customerID = Integer.parseInt(require(query, "customer"));
+        LoanMode mode = "optimistic".equalsIgnoreCase(query.get("mode")) ? LoanMode.OPTIMISTIC
+                : LoanMode.SINGLE_TRIP;
+
+        LoanResult result;
+        if (exchange.getRequestMethod().equals("POST")) {
+            LocalDate dueDate = LocalDate.parse(require(query, "due"));
+            result = service.borrowBook(isbn, customerID, dueDate, mode);
+        } else {
+            requireMethod(exchange, "DELETE");
+            result = service.returnBook(isbn, customerID, mode);
+        }
+
+        JsonWriter json = new JsonWriter().beginObject()
+                .name("outcome").value(result.getOutcome().name())
+                .name("isbn").value(result.getIsbn())
+                .name("customerID").value(result.getCustomerID());
+        if (result.getOutcome() == LoanResult.Outcome.BORROWED) {
+            json.name("title").value(result.getBookTitle())
+                    .name("customerName").value(result.getCustomerName())
+                    .name("dueDate").value(result.getDueDate().toString());
+        }
+        json.endObject();
+        if (result.getOutcome() == LoanResult.Outcome.ALREADY_BORROWED) {
+            return Response.conflict(json);
+        }
+        return Response.ok(json);
+    }
+
+    // Write a book with its authors
+    private void writeBook(JsonWriter json, BookRecord book) {
+        json.beginObject()
+                .name("isbn").value(book.getIsbn())
+                .name("title").value(book.getTitle())
+                .name("edition").value(book.getEditionNo())
+                .name("copies").value(book.getNumOfCop())
+                .name("copiesLeft").value(book.getNumLeft())
+                .name("authors").beginArray();
+        for (int i = 0; i < book.getAuthorSurnames().size(); i++) {
+            json.beginObject()
+                    .name("authorID").value(book.getAuthorIDs().get(i))
+                    .name("surname").value(book.getAuthorSurnames().get(i))
+                    .endObject();
+        }
+        json.endArray().endObject();
+    }
+
+    // Write an author, with their books for a lookup
+    private void writeAuthor(JsonWriter json, AuthorRecord author, boolean withBooks) {
+        json.beginObject()
+                .name("authorID").value(author.getAuthorID())
+                .name("name").value(author.getName())
+                .name("surname").value(author.getSurname());
+        if (withBooks) {
+            json.name("books");
+            writeBookSummaries(json, author.getBooks());
+        }
+        json.endObject();
+    }
+
+    // Write a customer, with their loans for a lookup
+    private void writeCustomer(JsonWriter json, CustomerRecord customer, boolean withBooks) {
+        json.beginObject()
+                .name("customerID").value(customer.getCustomerID())
+                .name("lastName").value(customer.getLastName())
+                .name("firstName").value(customer.getFirstName())
+                .name("city").value(customer.getCity());
+        if (withBooks) {
+            json.name("borrowed");
+            writeBookSummaries(json, customer.getBorrowed());
+        }
+        json.endObject();
+    }
+
+    // Write a list of ISBNs and titles
+    private void writeBookSummaries(JsonWriter json, Iterable<BookSummary> books) {
+        json.beginArray();
+        for (BookSummary book : books) {
+            json.beginObject().name("isbn").value(book.getIsbn()).name("title").value(book.getTitle()).endObject();
+        }
+        json.endArray();
+    }
+
+    // Run a route and send its response, mapping bad input and database failures to error responses
+    private void handle(HttpExchange exchange, Route route) throws IOException {
+        Response response;
+        try {
+            response = route.handle(exchange, getPathID(exchange), parseQuery(exchange));
+        } catch (MethodNotAllowedException e) {
+            response = Response.error(405, e.getMessage());
+        } catch (NumberFormatException | DateTimeParseException e) {
+            response = Response.error(400, "Malformed number or date: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            response = Response.error(400, e.getMessage());
+        } catch (LibraryException e) {
+            response = Response.error(e.isTransient() ? 503 : 500, e.getMessage());
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            response = Response.error(500, "Internal error");
+        }
+
+        try {
+            byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(response.status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // The path segment after the context, such as 42 in /books/42, or null for the context itself
+    private String getPathID(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        String context = exchange.getHttpContext().getPath();
+        String rest = path.substring(context.length());
+        while (rest.startsWith("/")) {
+            rest = rest.substring(1);
+        }
+        if (rest.contains("/")) {
+            throw new IllegalArgumentException("No such resource: " + path);
+        }
+        return rest.isEmpty() ? null : rest;
+    }
+
+    // Decode the query string into a map, keeping the last value of a repeated name
+    private Map<String, String> parseQuery(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null || raw.isEmpty()) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            query.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return query;
+    }
+
+    private String require(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+        return value;
+    }
+
+    private Integer getInteger(Map<String, String> query, String name) {
+        String value = query.get(name);
+        return value == null || value.isEmpty() ? null : Integer.valueOf(value);
+    }
+
+    // Number of search matches already shown, which can be no fewer than none
+    private Integer getOffset(Map<String, String> query, String name) {
+        Integer offset = getInteger(query, name);
+        if (offset != null && offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative: " + offset);
+        }
+        return offset;
+    }
+
+    // Requested page size, defaulting to the configured size and capped to keep responses small
+    private int getPageSize(Map<String, String> query) {
+        Integer size = getInteger(query, "size");
+        if (size == null) {
+            return LibraryService.PAGE_SIZE;
+        }
+        if (size < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1: " + size);
+        }
+        return Math.min(size, MAX_PAGE_SIZE);
+    }
+
+    private void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new MethodNotAllowedException(exchange.getRequestMethod() + " is not supported here");
+        }
+    }
+
+    /**
+     * A handler for the requests under one context.
+     */
+    private interface Route {
+        Response handle(HttpExchange exchange, String id, Map<String, String> query) throws LibraryException;
+    }
+
+    /**
+     * A status code and JSON body.
+     */
+    private static class Response {
+        private final int status;
+        private final String body;
+
+        private Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        private static Response ok(JsonWriter json) {
+            return new Response(200, json.toString());
+        }
+
+        private static Response conflict(JsonWriter json) {
+            return new Response(409, json.toString());
+        }
+
+        private static Response notFound(String message) {
+            return error(404, message);
+        }
+
+        private static Response error(int status, String message) {
+            return new Response(status, new JsonWriter().beginObject().name("error").value(message).endObject()
+                    .toString());
+        }
+    }
+
+    /**
+     * Thrown when an endpoint does not support the request method.
+     */
+    private static class MethodNotAllowedException extends RuntimeException {
+        private MethodNotAllowedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Headless access to the library, for batch jobs and servers.
+ *
+ * Unlike LibraryModel, results are records rather than formatted text, and a
+ * database failure is thrown as a LibraryException instead of being shown in
+ * a dialog and ending the process. Every call borrows its own pooled
+ * connection, so one service can be shared by any number of threads. Loans
+ * never pause for confirmation, so the interactive loan mode is not offered.
+ */
+public class LibraryService implements AutoCloseable {
+    // Rows returned per page of a paged listing
+    public static final int PAGE_SIZE = Integer.getInteger("library.pageSize", 20);
+
+    // Books held in the catalogue cache
+    public static final int CACHE_SIZE = Integer.getInteger("library.cache.maxBooks", 100_000);
+
+    private final ConnectionRouter router;
+    private final boolean ownsPool;
+    private final BookModel bookModel;
+    private final AuthorModel authorModel;
+    private final CustomerModel customerModel;
+    private final LoaningModel loaningModel;
+
+    // Share connections, a cache and lookup indexes with other users, such as a LibraryModel
+    public LibraryService(ConnectionRouter router, CatalogueCache cache, LookupIndexes lookups) {
+        this(router, cache, lookups, false);
+    }
+
+    private LibraryService(ConnectionRouter router, CatalogueCache cache, LookupIndexes lookups, boolean ownsPool) {
+        this.router = router;
+        this.ownsPool = ownsPool;
+        this.bookModel = new BookModel(null, router, cache, lookups);
+        this.authorModel = new AuthorModel(null, router, cache, lookups);
+        this.customerModel = new CustomerModel(null, router, lookups);
+        this.loaningModel = new LoaningModel(null, router, cache, lookups);
+    }
+
+    // Open a service with its own connection pools, which close() shuts down
+    public static LibraryService connect(String userid, String password) throws LibraryException {
+        try {
+            return new LibraryService(LibraryUtils.openConnections(userid, password),
+                    new CatalogueCache(CACHE_SIZE), new LookupIndexes(), true);
+        } catch (ClassNotFoundException e) {
+            throw new LibraryException("Connect", new SQLException("PostgreSQL JDBC driver not found", e));
+        } catch (SQLException e) {
+            throw new LibraryException("Connect", e);
+        }
+    }
+
+    // Find a book by ISBN, or null if there is no such book
+    public BookRecord findBook(int isbn) throws LibraryException {
+        return call("bookLookup", "Book Lookup", () -> bookModel.findBook(isbn));
+    }
+
+    public List<BookRecord> getCatalogue() throws LibraryException {
+        return call("showCatalogue", "Show Catalogue", bookModel::findCatalogue);
+    }
+
+    // Get the page of books following the given ISBN, or the first page if the token is null
+    public RecordPage<BookRecord> getCataloguePage(Integer afterISBN) throws LibraryException {
+        return getCataloguePage(afterISBN, PAGE_SIZE);
+    }
+
+    public RecordPage<BookRecord> getCataloguePage(Integer afterISBN, int pageSize) throws LibraryException {
+        return call("showCataloguePage", "Show Catalogue", () -> bookModel.findCataloguePage(afterISBN, pageSize));
+    }
+
+    // Get a page of books matching the search terms, best first, skipping the given number of matches
+    public RecordPage<BookRecord> searchCatalogue(String terms, Integer offset) throws LibraryException {
+        return searchCatalogue(terms, offset, PAGE_SIZE);
+    }
+
+    public RecordPage<BookRecord> searchCatalogue(String terms, Integer offset, int pageSize) throws LibraryException {
+        return call("searchCatalogue", "Search Catalogue", () -> bookModel.findMatchingBooks(terms, offset, pageSize));
+    }
+
+    public List<LoanedBook> getLoanedBooks() throws LibraryException {
+        return call("showLoanedBooks", "Show Loaned Books", bookModel::findLoanedBooks);
+    }
+
+    public DeleteResult deleteBook(int isbn) throws LibraryException {
+        return call("deleteBook", "Delete Book", () -> bookModel.removeBook(isbn));
+    }
+
+    // Find an author by ID, or null if there is no such author
+    public AuthorRecord findAuthor(int authorID) throws LibraryException {
+        return call("showAuthor", "Author Lookup", () -> authorModel.findAuthor(authorID));
+    }
+
+    public List<AuthorRecord> getAllAuthors() throws LibraryException {
+        return call("showAllAuthors", "Show All Authors", authorModel::findAllAuthors);
+    }
+
+    // Get the page of authors following the given ID, or the first page if the token is null
+    public RecordPage<AuthorRecord> getAuthorsPage(Integer afterAuthorID) throws LibraryException {
+        return getAuthorsPage(afterAuthorID, PAGE_SIZE);
+    }
+
+    public RecordPage<AuthorRecord> getAuthorsPage(Integer afterAuthorID, int pageSize) throws LibraryException {
+        return call("showAuthorsPage", "Show All Authors",
+                () -> authorModel.findAuthorsPage(afterAuthorID, pageSize));
+    }
+
+    public DeleteResult deleteAuthor(int authorID) throws LibraryException {
+        return call("deleteAuthor", "Delete Author", () -> authorModel.removeAuthor(authorID));
+    }
+
+    // Find a customer by ID, or null if there is no such customer
+    public CustomerRecord findCustomer(int customerID) throws LibraryException {
+        return call("showCustomer", "Show Customer", () -> customerModel.findCustomer(customerID));
+    }
+
+    public List<CustomerRecord> getAllCustomers() throws LibraryException {
+        return call("showAllCustomers", "Show All Customers", customerModel::findAllCustomers);
+    }
+
+    // Get the page of customers following the given ID, or the first page if the token is null
+    public RecordPage<CustomerRecord> getCustomersPage(Integer afterCustomerID) throws LibraryException {
+        return getCustomersPage(afterCustomerID, PAGE_SIZE);
+    }
+
+    public RecordPage<CustomerRecord> getCustomersPage(Integer afterCustomerID, int pageSize)
+            throws LibraryException {
+        return call("showCustomersPage", "Show All Customers",
+                () -> customerModel.findCustomersPage(afterCustomerID, pageSize));
+    }
+
+    public DeleteResult deleteCustomer(int customerID) throws LibraryException {
+        return call("deleteCustomer", "Delete Customer", () -> customerModel.removeCustomer(customerID));
+    }
+
+    // Borrow a book in a single round trip
+    public LoanResult borrowBook(int isbn, int customerID, LocalDate dueDate) throws LibraryException {
+        return borrowBook(isbn, customerID, dueDate, LoanMode.SINGLE_TRIP);
+    }
+
+    public LoanResult borrowBook(int isbn, int customerID, LocalDate dueDate, LoanMode mode)
+            throws LibraryException {
+        requireHeadless(mode);
+        return call("borrowBook", "Borrow Book",
+                () -> loaningModel.borrow(mode, isbn, customerID, java.sql.Date.valueOf(dueDate)));
+    }
+
+    // Return a book in a single round trip
+    public LoanResult returnBook(int isbn, int customerID) throws LibraryException {
+        return returnBook(isbn, customerID, LoanMode.SINGLE_TRIP);
+    }
+
+    public LoanResult returnBook(int isbn, int customerID, LoanMode mode) throws LibraryException {
+        requireHeadless(mode);
+        return call("returnBook", "Return Book", () -> loaningModel.returnLoan(mode, isbn, customerID));
+    }
+
+    // Close the connection pools if this service opened them
+    @Override
+    public void close() {
+        if (ownsPool) {
+            router.close();
+        }
+    }
+
+    // The interactive mode would block on a dialog that nobody can answer
+    private void requireHeadless(LoanMode mode) {
+        if (mode == LoanMode.INTERACTIVE) {
+            throw new IllegalArgumentException("The interactive loan mode needs a user interface");
+        }
+    }
+
+    // Time a model call under its metric name, reporting database failures as a LibraryException
+    private <T> T call(String metric, String operation, LibraryMetrics.Call<T, SQLException> call)
+            throws LibraryException {
+        try {
+            return LibraryMetrics.getInstance().record(metric, call);
+        } catch (SQLException e) {
+            throw new LibraryException(operation, e);
+        }
+    }
+}
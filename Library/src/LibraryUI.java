@@ -10,27 +10,47 @@
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import javax.swing.*;
 import javax.swing.border.Border;
+import javax.swing.event.AncestorEvent;
+import javax.swing.event.AncestorListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.Document;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
 
 import static java.awt.event.KeyEvent.VK_E;
 import static java.awt.event.KeyEvent.VK_T;
 import static javax.swing.BoxLayout.X_AXIS;
 import static javax.swing.JComponent.WHEN_ANCESTOR_OF_FOCUSED_COMPONENT;
 import static javax.swing.JOptionPane.ERROR_MESSAGE;
+import static javax.swing.JOptionPane.OK_CANCEL_OPTION;
+import static javax.swing.JOptionPane.OK_OPTION;
 import static javax.swing.JOptionPane.QUESTION_MESSAGE;
+import static javax.swing.JOptionPane.WARNING_MESSAGE;
 import static javax.swing.JOptionPane.showInputDialog;
 import static javax.swing.JOptionPane.showMessageDialog;
 import static javax.swing.JScrollPane.VERTICAL_SCROLLBAR_ALWAYS;
 import static javax.swing.KeyStroke.getKeyStroke;
 
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.sql.*;
 
 import static java.util.Calendar.DAY_OF_MONTH;
@@ -41,12 +61,26 @@ public class LibraryUI extends JFrame {
 	// Actions
 	private Action exitAction;
 	private Action clearTextAction;
+	private Action importDataAction;
+	private Action exportDataAction;
+	private Action showStatisticsAction;
 	private Action borrowAction;
 	private Action returnAction;
 
 	// The main output area
 	private JTextArea outputArea;
 
+	// Characters of a streamed listing handed to the output area at a time
+	private static final int OUTPUT_CHUNK_SIZE = 8192;
+
+	// Suggestions listed at most in a lookup dialog
+	private static final int SUGGESTIONS = 10;
+
+	// Status bar showing the actions still running
+	private JLabel statusLabel;
+	private JProgressBar busyBar;
+	private final Map<String, Integer> runningActions = new LinkedHashMap<String, Integer>();
+
 	// Return fields
 	private JTextField retISBN;
 	private JTextField retCustID;
@@ -66,6 +100,18 @@ public class LibraryUI extends JFrame {
 	// The data model
 	private LibraryModel model;
 
+	// Runs model calls off the event dispatch thread
+	private ModelExecutor executor = new ModelExecutor("library-ui");
+
+	// Listings shown a page at a time
+	private PagedListing cataloguePages;
+	private PagedListing authorPages;
+	private PagedListing customerPages;
+	private PagedListing searchPages;
+
+	// The words the catalogue search pages are showing matches for
+	private String searchTerms;
+
 	// A parent for modal dialogs
 	private JFrame dialogParent = this;
 
@@ -106,6 +152,25 @@ public class LibraryUI extends JFrame {
 	private void initActions() {
 		exitAction = new ExitAction();
 		clearTextAction = new ClearTextAction();
+		cataloguePages = new PagedListing("Browse Catalogue", token -> model.showCataloguePage(token));
+		authorPages = new PagedListing("Browse Authors", token -> model.showAuthorsPage(token));
+		customerPages = new PagedListing("Browse Customers", token -> model.showCustomersPage(token));
+		searchPages = new PagedListing("Search...", token -> model.searchCatalogue(searchTerms, token)) {
+			protected boolean begin() {
+				Object in = showInputDialog(dialogParent,
+						"Enter words from a title or author name",
+						"Search Catalogue",
+						QUESTION_MESSAGE,
+						null, null, searchTerms);
+				if (in == null || ((String) in).trim().isEmpty())
+					return false;
+				searchTerms = ((String) in).trim();
+				return true;
+			}
+		};
+		importDataAction = new ImportDataAction();
+		exportDataAction = new ExportDataAction();
+		showStatisticsAction = new ShowStatisticsAction();
 		borrowAction = new BorrowAction();
 		returnAction = new ReturnAction();
 
@@ -142,6 +207,18 @@ public class LibraryUI extends JFrame {
 
 		getContentPane().add(sp, BorderLayout.CENTER);
 
+		// Create status bar
+		statusLabel = new JLabel("Ready");
+		busyBar = new JProgressBar();
+		busyBar.setIndeterminate(true);
+		busyBar.setVisible(false);
+		Box statusBar = new Box(X_AXIS);
+		statusBar.setBorder(BorderFactory.createEmptyBorder(2, 5, 2, 5));
+		statusBar.add(statusLabel);
+		statusBar.add(Box.createHorizontalGlue());
+		statusBar.add(busyBar);
+		getContentPane().add(statusBar, BorderLayout.SOUTH);
+
 		// Create menus
 		JMenu fileMenu = new JMenu("File");
 		fileMenu.setMnemonic('F');
@@ -151,10 +228,28 @@ public class LibraryUI extends JFrame {
 
 		fileMenu.add(clearTextMenuItem);
 		fileMenu.addSeparator();
+		fileMenu.add(new JMenuItem(importDataAction));
+		fileMenu.add(new JMenuItem(exportDataAction));
+		fileMenu.addSeparator();
+		fileMenu.add(new JMenuItem(showStatisticsAction));
+		fileMenu.addSeparator();
 		fileMenu.add(exitMenuItem);
 
+		// Loan mode, interactive by default
+		JMenu loanMenu = new JMenu("Loans");
+		loanMenu.setMnemonic('L');
+		ButtonGroup loanModes = new ButtonGroup();
+		for (LoanMode mode : LoanMode.values()) {
+			JRadioButtonMenuItem modeMenuItem = new JRadioButtonMenuItem(mode.getLabel(),
+					mode == LoanMode.INTERACTIVE);
+			modeMenuItem.addActionListener(e -> model.setLoanMode(mode));
+			loanModes.add(modeMenuItem);
+			loanMenu.add(modeMenuItem);
+		}
+
 		JMenuBar menuBar = new JMenuBar();
 		menuBar.add(fileMenu);
+		menuBar.add(loanMenu);
 		setJMenuBar(menuBar);
 
 		// Pack it all
@@ -197,6 +292,10 @@ public class LibraryUI extends JFrame {
 		// Create buttons
 		JButton bookLookup = new JButton(new BookLookupAction());
 		JButton showCat = new JButton(new ShowCatalogueAction());
+		JButton browseCat = new JButton(cataloguePages.firstPageAction);
+		JButton nextCatPage = new JButton(cataloguePages.nextPageAction);
+		JButton search = new JButton(searchPages.firstPageAction);
+		JButton nextSearchPage = new JButton(searchPages.nextPageAction);
 		JButton showLoanedBook = new JButton(new ShowLoanedBooksAction());
 		JButton deleteBook = new JButton(new DeleteBookAction());
 
@@ -207,6 +306,14 @@ public class LibraryUI extends JFrame {
 		pane.add(Box.createHorizontalStrut(5));
 		pane.add(showCat);
 		pane.add(Box.createHorizontalStrut(5));
+		pane.add(browseCat);
+		pane.add(Box.createHorizontalStrut(5));
+		pane.add(nextCatPage);
+		pane.add(Box.createHorizontalStrut(5));
+		pane.add(search);
+		pane.add(Box.createHorizontalStrut(5));
+		pane.add(nextSearchPage);
+		pane.add(Box.createHorizontalStrut(5));
 		pane.add(showLoanedBook);
 		pane.add(Box.createHorizontalStrut(5));
 		pane.add(deleteBook);
@@ -218,6 +325,8 @@ public class LibraryUI extends JFrame {
 		// Create buttons
 		JButton showAuthor = new JButton(new ShowAuthorAction());
 		JButton showAllAuth = new JButton(new ShowAllAuthorsAction());
+		JButton browseAuth = new JButton(authorPages.firstPageAction);
+		JButton nextAuthPage = new JButton(authorPages.nextPageAction);
 		JButton deleteAuthor = new JButton(new DeleteAuthorAction());
 		// Create panel
 		Box pane = new Box(X_AXIS);
@@ -226,6 +335,10 @@ public class LibraryUI extends JFrame {
 		pane.add(Box.createHorizontalStrut(5));
 		pane.add(showAllAuth);
 		pane.add(Box.createHorizontalStrut(5));
+		pane.add(browseAuth);
+		pane.add(Box.createHorizontalStrut(5));
+		pane.add(nextAuthPage);
+		pane.add(Box.createHorizontalStrut(5));
 		pane.add(deleteAuthor);
 		pane.add(Box.createHorizontalGlue());
 
@@ -236,6 +349,8 @@ public class LibraryUI extends JFrame {
 		// Create buttons
 		JButton showCus = new JButton(new ShowCustomerAction());
 		JButton showAllCus = new JButton(new ShowAllCustomersAction());
+		JButton browseCus = new JButton(customerPages.firstPageAction);
+		JButton nextCusPage = new JButton(customerPages.nextPageAction);
 		JButton deleteCus = new JButton(new DeleteCustomerAction());
 
 		// Create panel
@@ -245,6 +360,10 @@ public class LibraryUI extends JFrame {
 		pane.add(Box.createHorizontalStrut(5));
 		pane.add(showAllCus);
 		pane.add(Box.createHorizontalStrut(5));
+		pane.add(browseCus);
+		pane.add(Box.createHorizontalStrut(5));
+		pane.add(nextCusPage);
+		pane.add(Box.createHorizontalStrut(5));
 		pane.add(deleteCus);
 		pane.add(Box.createHorizontalGlue());
 
@@ -389,6 +508,59 @@ public class LibraryUI extends JFrame {
 		}
 	}
 
+	/**
+	 * Ask for a directory of CSV files, one per table.
+	 * Returns null if the user cancels.
+	 */
+	private String chooseDataDirectory(String title) {
+		JFileChooser chooser = new JFileChooser();
+		chooser.setDialogTitle(title);
+		chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		if (chooser.showDialog(dialogParent, "Select") != JFileChooser.APPROVE_OPTION)
+			return null;
+		return chooser.getSelectedFile().getPath();
+	}
+
+	private class ImportDataAction extends CatchAction {
+		public ImportDataAction() {
+			super("Import Data...");
+		}
+
+		protected void doAction() {
+			String directory = chooseDataDirectory("Import Data");
+			if (directory == null)
+				return;
+			int defer = JOptionPane.showConfirmDialog(dialogParent,
+					"Defer constraint checks until the import commits?",
+					"Import Data", JOptionPane.YES_NO_OPTION, QUESTION_MESSAGE);
+			boolean deferConstraints = defer == JOptionPane.YES_OPTION;
+			runInBackground(() -> model.importData(directory, deferConstraints));
+		}
+	}
+
+	private class ExportDataAction extends CatchAction {
+		public ExportDataAction() {
+			super("Export Data...");
+		}
+
+		protected void doAction() {
+			String directory = chooseDataDirectory("Export Data");
+			if (directory == null)
+				return;
+			runInBackground(() -> model.exportData(directory));
+		}
+	}
+
+	private class ShowStatisticsAction extends CatchAction {
+		public ShowStatisticsAction() {
+			super("Show Statistics");
+		}
+
+		protected void doAction() {
+			appendOutput(model.getStatistics());
+		}
+	}
+
 	/**
 	 * An Action that catches any exception thrown in the doAction method.
 	 */
@@ -407,6 +579,168 @@ public class LibraryUI extends JFrame {
 
 		/** Subclasses implement this for their behaviour */
 		protected abstract void doAction();
+
+		/**
+		 * Run a model call on a background thread and append its
+		 * result to the output area once it completes.
+		 */
+		protected void runInBackground(Supplier<String> call) {
+			runInBackground(call, result -> appendOutput(result));
+		}
+
+		/**
+		 * Run a model call on a background thread and pass its result
+		 * to the handler on the event dispatch thread.
+		 */
+		protected <T> void runInBackground(Supplier<T> call, final Consumer<T> handler) {
+			final String name = (String) getValue(NAME);
+			actionStarted(name);
+			executor.submit(call).whenComplete((result, error) -> SwingUtilities.invokeLater(() -> {
+				actionFinished(name);
+				if (error != null)
+					showExceptionDialog(error instanceof CompletionException ? error.getCause() : error);
+				else
+					handler.accept(result);
+			}));
+		}
+
+		/**
+		 * Run a model listing on a background thread, copying its
+		 * output into the output area in chunks as it is written.
+		 * The listing's place is reserved now, so output from other
+		 * actions appears after it rather than inside it.
+		 */
+		protected void streamInBackground(final LibraryUtils.Renderer listing) {
+			final OutputAreaWriter out = new OutputAreaWriter();
+			runInBackground(() -> {
+				try {
+					listing.writeTo(out);
+					out.finish();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return null;
+			});
+		}
+	}
+
+	/**
+	 * An Appendable that copies text into the output area a chunk at a
+	 * time. Each chunk is inserted on the event dispatch thread before
+	 * the next is collected, so a long listing is never held in full
+	 * anywhere but the text area itself.
+	 *
+	 * Created on the event dispatch thread, it appends the blank lines
+	 * that end a listing straight away and inserts every chunk in front
+	 * of them. Text appended by other actions meanwhile goes after those
+	 * lines, so it never lands inside the listing.
+	 */
+	private class OutputAreaWriter implements Appendable {
+		private final StringBuilder chunk = new StringBuilder(OUTPUT_CHUNK_SIZE);
+
+		/** The last of the blank lines after the listing */
+		private Position tail;
+
+		public OutputAreaWriter() {
+			reserve();
+		}
+
+		public Appendable append(CharSequence text) throws IOException {
+			CharSequence chars = text == null ? "null" : text;
+			return append(chars, 0, chars.length());
+		}
+
+		public Appendable append(CharSequence text, int start, int end) throws IOException {
+			chunk.append(text, start, end);
+			if (chunk.length() >= OUTPUT_CHUNK_SIZE)
+				flush();
+			return this;
+		}
+
+		public Appendable append(char c) throws IOException {
+			chunk.append(c);
+			if (chunk.length() >= OUTPUT_CHUNK_SIZE)
+				flush();
+			return this;
+		}
+
+		/** Show whatever of the listing is left */
+		public void finish() throws IOException {
+			flush();
+		}
+
+		/** Append the spacing appendOutput leaves, marking where the listing goes */
+		private void reserve() {
+			Document document = outputArea.getDocument();
+			try {
+				document.insertString(document.getLength(), "\n\n", null);
+				tail = document.createPosition(document.getLength() - 1);
+			} catch (BadLocationException ble) {
+				throw new IllegalStateException(ble);
+			}
+		}
+
+		/** Insert text in front of the blank lines, reserving them again if the output was cleared */
+		private void insert(String text) {
+			if (tail.getOffset() < 1)
+				reserve();
+			try {
+				outputArea.getDocument().insertString(tail.getOffset() - 1, text, null);
+			} catch (BadLocationException ble) {
+				throw new IllegalStateException(ble);
+			}
+		}
+
+		private void flush() throws IOException {
+			final String text = chunk.toString();
+			chunk.setLength(0);
+			try {
+				SwingUtilities.invokeAndWait(() -> insert(text));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while showing output");
+			} catch (InvocationTargetException e) {
+				throw new IOException(e.getCause());
+			}
+		}
+	}
+
+	// Record that an action has started running in the background
+	private void actionStarted(String name) {
+		Integer count = runningActions.get(name);
+		runningActions.put(name, count == null ? 1 : count + 1);
+		updateStatus();
+	}
+
+	// Record that a background action has finished
+	private void actionFinished(String name) {
+		Integer count = runningActions.get(name);
+		if (count == null || count <= 1)
+			runningActions.remove(name);
+		else
+			runningActions.put(name, count - 1);
+		updateStatus();
+	}
+
+	// Show which actions are still running
+	private void updateStatus() {
+		if (runningActions.isEmpty()) {
+			statusLabel.setText("Ready");
+			busyBar.setVisible(false);
+			return;
+		}
+		StringBuilder status = new StringBuilder("Running: ");
+		boolean first = true;
+		for (Map.Entry<String, Integer> entry : runningActions.entrySet()) {
+			if (!first)
+				status.append(", ");
+			status.append(entry.getKey());
+			if (entry.getValue() > 1)
+				status.append(" (").append(entry.getValue()).append(")");
+			first = false;
+		}
+		statusLabel.setText(status.toString());
+		busyBar.setVisible(true);
 	}
 
 	private class ReturnAction extends CatchAction {
@@ -418,7 +752,7 @@ public class LibraryUI extends JFrame {
 			try {
 				int isbn = Integer.parseInt(retISBN.getText());
 				int cusID = Integer.parseInt(retCustID.getText());
-				appendOutput(model.returnBook(isbn, cusID));
+				runInBackground(() -> model.returnBook(isbn, cusID));
 			} catch (NumberFormatException nfe) {
 				showMessageDialog(dialogParent,
 						"The values entered for ISBN or customer ID do not have number format. Please try again.",
@@ -439,7 +773,7 @@ public class LibraryUI extends JFrame {
 				int day = Integer.parseInt((String) borDay.getSelectedItem());
 				int year = Integer.parseInt((String) borYear.getSelectedItem());
 				int month = borMonth.getSelectedIndex();
-				appendOutput(model.borrowBook(isbn, cusID, day, month, year));
+				runInBackground(() -> model.borrowBook(isbn, cusID, day, month, year));
 			} catch (NumberFormatException nfe) {
 				showMessageDialog(dialogParent,
 						"The values entered for ISBN or customer ID do not have a numeric format. Please try again.",
@@ -464,32 +798,37 @@ public class LibraryUI extends JFrame {
 
 	/**
 	 * A base class for lookup-based actions: prompt for a number with
-	 * various strings in the right places and call the doLookup method.
+	 * various strings in the right places, suggesting matching names as
+	 * the user types, and call the doLookup method.
 	 */
 	private abstract class LookupAction extends CatchAction {
 		String title, itemDesc, a;
+		Function<String, List<Suggestion>> suggester;
 
-		public LookupAction(String name, String itemDesc) {
-			this(name, itemDesc, isVowel(itemDesc.charAt(0)) ? "an" : "a");
+		/** Set by actions that delete, so a name typed must match one entry only */
+		boolean requireUniqueMatch;
+
+		public LookupAction(String name, String itemDesc, Function<String, List<Suggestion>> suggester) {
+			this(name, itemDesc, isVowel(itemDesc.charAt(0)) ? "an" : "a", suggester);
 		}
 
-		public LookupAction(String name, String itemDesc, String a) {
+		public LookupAction(String name, String itemDesc, String a,
+				Function<String, List<Suggestion>> suggester) {
 			super(name);
 			title = name;
 			this.itemDesc = itemDesc;
 			this.a = a;
+			this.suggester = suggester;
 		}
 
 		protected void doAction() {
 			try {
-				Object in = showInputDialog(dialogParent,
-						"Enter " + a + " " + itemDesc,
-						title,
-						QUESTION_MESSAGE,
-						null, null, null);
+				String in = showLookupDialog(title,
+						"Enter " + a + " " + itemDesc + " or the start of a name",
+						suggester, requireUniqueMatch, "");
 				if (in == null)
 					return;
-				int item = Integer.parseInt((String) in);
+				int item = Integer.parseInt(in);
 				doLookup(item);
 			} catch (NumberFormatException nfe) {
 				String message = "The " + itemDesc + " entered does not have a numeric " +
@@ -505,61 +844,64 @@ public class LibraryUI extends JFrame {
 
 	private class ShowCustomerAction extends LookupAction {
 		public ShowCustomerAction() {
-			super("Show Customer", "customer ID");
+			super("Show Customer", "customer ID", typed -> model.getLookups().suggestCustomers(typed, SUGGESTIONS));
 		}
 
 		protected void doLookup(int customerID) {
-			appendOutput(model.showCustomer(customerID));
+			runInBackground(() -> model.showCustomer(customerID));
 		}
 	}
 
 	private class ShowAuthorAction extends LookupAction {
 		public ShowAuthorAction() {
-			super("Show Author", "author ID");
+			super("Show Author", "author ID", typed -> model.getLookups().suggestAuthors(typed, SUGGESTIONS));
 		}
 
 		protected void doLookup(int authorID) {
-			appendOutput(model.showAuthor(authorID));
+			runInBackground(() -> model.showAuthor(authorID));
 		}
 	}
 
 	private class BookLookupAction extends LookupAction {
 		public BookLookupAction() {
-			super("Book Lookup", "ISBN");
+			super("Book Lookup", "ISBN", typed -> model.getLookups().suggestBooks(typed, SUGGESTIONS));
 		}
 
 		protected void doLookup(int isbn) {
-			appendOutput(model.bookLookup(isbn));
+			runInBackground(() -> model.bookLookup(isbn));
 		}
 	}
 
 	private class DeleteCustomerAction extends LookupAction {
 		public DeleteCustomerAction() {
-			super("Delete Customer", "customer ID");
+			super("Delete Customer", "customer ID", typed -> model.getLookups().suggestCustomers(typed, SUGGESTIONS));
+			requireUniqueMatch = true;
 		}
 
 		protected void doLookup(int customerID) {
-			appendOutput(model.deleteCus(customerID));
+			runInBackground(() -> model.deleteCus(customerID));
 		}
 	}
 
 	private class DeleteAuthorAction extends LookupAction {
 		public DeleteAuthorAction() {
-			super("Delete Author", "author ID");
+			super("Delete Author", "author ID", typed -> model.getLookups().suggestAuthors(typed, SUGGESTIONS));
+			requireUniqueMatch = true;
 		}
 
 		protected void doLookup(int authorID) {
-			appendOutput(model.deleteAuthor(authorID));
+			runInBackground(() -> model.deleteAuthor(authorID));
 		}
 	}
 
 	private class DeleteBookAction extends LookupAction {
 		public DeleteBookAction() {
-			super("Delete Book", "ISBN");
+			super("Delete Book", "ISBN", typed -> model.getLookups().suggestBooks(typed, SUGGESTIONS));
+			requireUniqueMatch = true;
 		}
 
 		protected void doLookup(int isbn) {
-			appendOutput(model.deleteBook(isbn));
+			runInBackground(() -> model.deleteBook(isbn));
 		}
 	}
 
@@ -569,7 +911,7 @@ public class LibraryUI extends JFrame {
 		}
 
 		protected void doAction() {
-			appendOutput(model.showAllCustomers());
+			streamInBackground(out -> model.showAllCustomers(out));
 		}
 	}
 
@@ -579,7 +921,7 @@ public class LibraryUI extends JFrame {
 		}
 
 		protected void doAction() {
-			appendOutput(model.showAllAuthors());
+			streamInBackground(out -> model.showAllAuthors(out));
 		}
 	}
 
@@ -589,7 +931,7 @@ public class LibraryUI extends JFrame {
 		}
 
 		protected void doAction() {
-			appendOutput(model.showCatalogue());
+			streamInBackground(out -> model.showCatalogue(out));
 		}
 	}
 
@@ -599,17 +941,176 @@ public class LibraryUI extends JFrame {
 		}
 
 		protected void doAction() {
-			appendOutput(model.showLoanedBooks());
+			streamInBackground(out -> model.showLoanedBooks(out));
+		}
+	}
+
+	/**
+	 * A listing shown one page at a time. The first page action starts
+	 * from the beginning; the next page action continues from the last
+	 * row shown and is only enabled while more rows remain. Subclasses
+	 * may override begin to ask what to list first.
+	 */
+	private class PagedListing {
+		private final Function<Integer, Page> loader;
+		private final Action firstPageAction;
+		private final Action nextPageAction;
+		private Integer nextToken;
+
+		public PagedListing(String name, Function<Integer, Page> loader) {
+			this.loader = loader;
+			firstPageAction = new CatchAction(name) {
+				protected void doAction() {
+					if (begin())
+						showPage(this, null);
+				}
+			};
+			nextPageAction = new CatchAction("Next Page") {
+				protected void doAction() {
+					showPage(this, nextToken);
+				}
+			};
+			nextPageAction.setEnabled(false);
+		}
+
+		/** Called before the first page is shown; returning false cancels it */
+		protected boolean begin() {
+			return true;
+		}
+
+		private void showPage(CatchAction action, final Integer token) {
+			nextPageAction.setEnabled(false);
+			action.runInBackground(() -> loader.apply(token), page -> {
+				appendOutput(page.getText());
+				nextToken = page.getNextToken();
+				nextPageAction.setEnabled(page.hasNext());
+			});
 		}
 	}
 
+	/**
+	 * Ask for an ID, listing the entries with a word starting with each
+	 * word typed so far. The list is refilled from memory on every
+	 * keystroke; the arrow keys or the mouse pick an entry. Returns the
+	 * picked ID, the first suggestion if a name was typed, the text as
+	 * typed otherwise, or null if cancelled. When requireUniqueMatch is
+	 * set, a name matching more than one entry picks none of them: the
+	 * dialog is shown again with the matches until one is picked.
+	 */
+	private String showLookupDialog(String title, String prompt,
+			final Function<String, List<Suggestion>> suggester, boolean requireUniqueMatch,
+			String initialText) {
+		final JTextField field = new JTextField(30);
+		final DefaultListModel<Suggestion> matches = new DefaultListModel<Suggestion>();
+		final JList<Suggestion> list = new JList<Suggestion>(matches);
+		list.setVisibleRowCount(SUGGESTIONS);
+		list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+		list.setFocusable(false);
+
+		field.getDocument().addDocumentListener(new DocumentListener() {
+			public void insertUpdate(DocumentEvent e) {
+				refill();
+			}
+
+			public void removeUpdate(DocumentEvent e) {
+				refill();
+			}
+
+			public void changedUpdate(DocumentEvent e) {
+			}
+
+			private void refill() {
+				matches.clear();
+				for (Suggestion suggestion : suggester.apply(field.getText()))
+					matches.addElement(suggestion);
+			}
+		});
+
+		field.setText(initialText);
+
+		// Up and down move through the suggestions while typing
+		field.getInputMap().put(getKeyStroke("DOWN"), "nextSuggestion");
+		field.getInputMap().put(getKeyStroke("UP"), "previousSuggestion");
+		field.getActionMap().put("nextSuggestion", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				int next = Math.min(list.getSelectedIndex() + 1, matches.size() - 1);
+				list.setSelectedIndex(next);
+				list.ensureIndexIsVisible(next);
+			}
+		});
+		field.getActionMap().put("previousSuggestion", new AbstractAction() {
+			public void actionPerformed(ActionEvent e) {
+				int previous = list.getSelectedIndex() - 1;
+				if (previous < 0)
+					list.clearSelection();
+				else {
+					list.setSelectedIndex(previous);
+					list.ensureIndexIsVisible(previous);
+				}
+			}
+		});
+
+		// Enter in the field or a double click on a suggestion accepts
+		field.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				closeOptionPane(field, OK_OPTION);
+			}
+		});
+		list.addMouseListener(new MouseAdapter() {
+			public void mouseClicked(MouseEvent e) {
+				if (e.getClickCount() == 2 && list.getSelectedIndex() >= 0)
+					closeOptionPane(list, OK_OPTION);
+			}
+		});
+
+		// Start with the caret in the field rather than on the OK button
+		field.addAncestorListener(new AncestorListener() {
+			public void ancestorAdded(AncestorEvent e) {
+				field.requestFocusInWindow();
+			}
+
+			public void ancestorRemoved(AncestorEvent e) {
+			}
+
+			public void ancestorMoved(AncestorEvent e) {
+			}
+		});
+
+		JPanel pane = new JPanel(new BorderLayout(0, 5));
+		pane.add(new JLabel(prompt), BorderLayout.NORTH);
+		pane.add(field, BorderLayout.CENTER);
+		pane.add(new JScrollPane(list), BorderLayout.SOUTH);
+		if (JOptionPane.showConfirmDialog(dialogParent, pane, title, OK_CANCEL_OPTION,
+				QUESTION_MESSAGE) != OK_OPTION)
+			return null;
+
+		Suggestion picked = list.getSelectedValue();
+		String typed = field.getText().trim();
+		if (picked == null && !matches.isEmpty() && !typed.matches("\\d+")) {
+			if (requireUniqueMatch && matches.size() > 1) {
+				showMessageDialog(dialogParent, "More than one entry matches \"" + typed
+						+ "\". Pick one from the list or type more of the name.", title, WARNING_MESSAGE);
+				return showLookupDialog(title, prompt, suggester, true, typed);
+			}
+			picked = matches.firstElement();
+		}
+		return picked != null ? String.valueOf(picked.getId()) : typed;
+	}
+
+	// Close the option pane holding a component as if a button was pressed
+	private static void closeOptionPane(Component component, int option) {
+		JOptionPane pane = (JOptionPane) SwingUtilities.getAncestorOfClass(JOptionPane.class, component);
+		if (pane != null)
+			pane.setValue(option);
+	}
+
 	private void appendOutput(String str) {
 		if (str != null && !str.equals(""))
 			outputArea.append(str + "\n\n");
 		outputArea.setCaretPosition(outputArea.getDocument().getLength());
 	}
 
-	private void showExceptionDialog(Exception e) {
+	private void showExceptionDialog(Throwable e) {
 		showMessageDialog(this,
 				e.toString(),
 				"Error performing action",
@@ -618,6 +1119,7 @@ public class LibraryUI extends JFrame {
 
 	/** Exit the Application */
 	private void doExit() {
+		executor.shutdown();
 		model.closeDBConnection();
 		System.exit(0);
 	}
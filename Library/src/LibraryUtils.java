@@ -1,20 +1,43 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import javax.swing.*;
 
 public class LibraryUtils {
 
-    private static final String URL = "jdbc:postgresql://db.ecs.vuw.ac.nz:5432/wattjess2_jdbc";
+    // Database URL, overridable with -Dlibrary.db.url to point at a local server
+    private static final String URL = System.getProperty("library.db.url",
+            "jdbc:postgresql://db.ecs.vuw.ac.nz:5432/wattjess2_jdbc?reWriteBatchedInserts=true");
+
+    // Comma-separated URLs of read replicas for catalogue reads, and how stale they may be before reads skip them
+    private static final String REPLICA_URLS = System.getProperty("library.db.replicaUrls", "");
+    private static final long REPLICA_MAX_LAG_MILLIS = Long.getLong("library.replica.maxLagMillis", 1_000);
+    private static final long REPLICA_LAG_CHECK_MILLIS = Long.getLong("library.replica.lagCheckMillis", 250);
+
+    // Connection pool settings, overridable with -D system properties
+    private static final int POOL_SIZE = Integer.getInteger("library.pool.size", 8);
+    private static final int READ_POOL_SIZE = Integer.getInteger("library.pool.readSize", POOL_SIZE);
+    private static final long ACQUIRE_TIMEOUT_MILLIS = Long.getLong("library.pool.acquireTimeoutMillis", 30_000);
+    private static final long IDLE_TIMEOUT_MILLIS = Long.getLong("library.pool.idleTimeoutMillis", 600_000);
+    private static final long MAX_LIFETIME_MILLIS = Long.getLong("library.pool.maxLifetimeMillis", 1_800_000);
+    private static final int VALIDATION_TIMEOUT_SECONDS = Integer.getInteger("library.pool.validationTimeoutSeconds", 5);
+
+    // Rows fetched per round trip when a bulk query is read through a cursor
+    public static final int FETCH_SIZE = Integer.getInteger("library.fetchSize", 1000);
 
     private LibraryUtils() {
     }
 
-    // Set up connection to database
-    public static Connection setupDatabaseConnection(JFrame parent, String userid, String password) {
+    // Set up pools of read-write and read-only connections to database
+    public static ConnectionRouter setupConnections(JFrame parent, String userid, String password) {
         try {
-            Class.forName("org.postgresql.Driver");
-            return DriverManager.getConnection(URL, userid, password);
+            return openConnections(userid, password);
         } catch (ClassNotFoundException e) {
             handleClassNotFoundException(parent, e, userid);
             return null;
@@ -24,6 +47,46 @@ public class LibraryUtils {
         }
     }
 
+    // Open read-write, read-only and replica pools of connections to database, without any user interface
+    public static ConnectionRouter openConnections(String userid, String password)
+            throws ClassNotFoundException, SQLException {
+        ConnectionPool primary = openConnectionPool(URL, userid, password, POOL_SIZE, false);
+        ConnectionPool reads;
+        try {
+            reads = openConnectionPool(URL, userid, password, READ_POOL_SIZE, true);
+        } catch (SQLException e) {
+            primary.close();
+            throw e;
+        }
+
+        // Replicas connect on first use, so one that is down only sends its reads to the primary
+        List<ConnectionPool> replicas = new ArrayList<>();
+        for (String url : REPLICA_URLS.split(",")) {
+            if (!url.isBlank()) {
+                replicas.add(new ConnectionPool(url.trim(), userid, password, READ_POOL_SIZE, ACQUIRE_TIMEOUT_MILLIS,
+                        IDLE_TIMEOUT_MILLIS, MAX_LIFETIME_MILLIS, VALIDATION_TIMEOUT_SECONDS, true));
+            }
+        }
+        return new ConnectionRouter(primary, reads, replicas, REPLICA_MAX_LAG_MILLIS, REPLICA_LAG_CHECK_MILLIS);
+    }
+
+    // Open a pool of connections to database
+    private static ConnectionPool openConnectionPool(String url, String userid, String password, int size,
+            boolean readOnly) throws ClassNotFoundException, SQLException {
+        Class.forName("org.postgresql.Driver");
+        ConnectionPool pool = new ConnectionPool(url, userid, password, size, ACQUIRE_TIMEOUT_MILLIS,
+                IDLE_TIMEOUT_MILLIS, MAX_LIFETIME_MILLIS, VALIDATION_TIMEOUT_SECONDS, readOnly);
+
+        // Open the first connection up front so bad credentials are reported at login
+        try {
+            pool.getConnection().close();
+        } catch (SQLException e) {
+            pool.close();
+            throw e;
+        }
+        return pool;
+    }
+
     // Handle ClassNotFoundException
     private static void handleClassNotFoundException(JFrame parent, ClassNotFoundException e, String userid) {
         showErrorMessage(parent, e.getMessage(), userid);
@@ -46,43 +109,65 @@ public class LibraryUtils {
 
     // Display error message on popup window
     public static void showErrorMessage(JFrame parent, String message, String title) {
+        LibraryMetrics.recordFailedBeforeExit();
         String errorTitle = title + " Error";
-        JOptionPane.showMessageDialog(parent, message, errorTitle, JOptionPane.ERROR_MESSAGE);
+        callOnEventThread(() -> {
+            JOptionPane.showMessageDialog(parent, message, errorTitle, JOptionPane.ERROR_MESSAGE);
+            return null;
+        });
         System.exit(1);
     }
 
-    // Close connection to database
-    public static void closeDBConnection(Connection conn) {
-        if (conn != null) {
-            try {
-                conn.close();
-                System.out.println("Database connection closed successfully.");
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-                System.exit(1);
-            }
+    // Run a dialog or other Swing call on the event dispatch thread and wait for its result
+    public static <T> T callOnEventThread(Supplier<T> call) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            return call.get();
+        }
+        AtomicReference<T> result = new AtomicReference<>();
+        try {
+            SwingUtilities.invokeAndWait(() -> result.set(call.get()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
         }
+        return result.get();
     }
 
-    // Revert disabling of auto commit used in modification and deletion operations
-    public static void restoreAutoCommit(JFrame parent, Connection conn, String processTitle) {
+    // Close all pooled connections to database
+    public static void closeConnections(ConnectionRouter router) {
+        if (router != null) {
+            router.close();
+            System.out.println("Database connections closed successfully.");
+        }
+    }
+
+    // Render streamed output into one String, for callers that want the whole text at once
+    public static String render(Renderer renderer) {
+        StringBuilder output = new StringBuilder();
         try {
-            conn.setAutoCommit(true);
-        } catch (SQLException e) {
-            showErrorMessage(parent, e.getMessage(), processTitle);
-            System.exit(1);
+            renderer.writeTo(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // A StringBuilder never throws
         }
+        return output.toString();
     }
 
-    // Handle rollback of modification and deletion operations
-    public static void handleRollback(JFrame parent, Connection conn, String message, String processTitle) {
+    // Roll back after a failed statement, keeping the original failure
+    public static SQLException rollback(Connection conn, SQLException cause) {
+        LibraryMetrics.markRolledBack();
         try {
-            conn.rollback(); // Rollback transaction on error
+            conn.rollback();
         } catch (SQLException rollbackE) {
-            showErrorMessage(parent, rollbackE.getMessage(), processTitle);
-            System.exit(1);
+            cause.addSuppressed(rollbackE);
         }
-        showErrorMessage(parent, message, processTitle);
-        System.exit(1);
+        return cause;
+    }
+
+    /**
+     * Output written to a caller-supplied sink.
+     */
+    public interface Renderer {
+        void writeTo(Appendable out) throws IOException;
     }
 }
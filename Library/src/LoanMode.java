@@ -0,0 +1,23 @@
+/**
+ * How LoaningModel runs a borrow or return.
+ */
+public enum LoanMode {
+    // Lock the customer and book, then wait for the user to confirm before updating
+    INTERACTIVE("Interactive (lock and confirm)"),
+
+    // Check, update and fetch the result in a single statement
+    SINGLE_TRIP("Single round trip"),
+
+    // Take a copy with a conditional update and let constraints guard the loan, without locking first
+    OPTIMISTIC("Optimistic (no locks)");
+
+    private final String label;
+
+    LoanMode(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
@@ -0,0 +1,64 @@
+import java.time.LocalDate;
+
+/**
+ * The outcome of borrowing or returning a book. The title, customer name and
+ * due date are only filled in for a successful borrow.
+ */
+public class LoanResult {
+    public enum Outcome {
+        BORROWED,
+        RETURNED,
+        NO_SUCH_CUSTOMER,
+        NO_COPIES_LEFT,
+        NOT_LOANED,
+        // The customer already has this book on loan
+        ALREADY_BORROWED,
+        // The user declined to continue at the interactive pause
+        CANCELLED
+    }
+
+    private final Outcome outcome;
+    private final int isbn;
+    private final int customerID;
+    private final String bookTitle;
+    private final String customerName;
+    private final LocalDate dueDate;
+
+    public LoanResult(Outcome outcome, int isbn, int customerID, String bookTitle, String customerName,
+            LocalDate dueDate) {
+        this.outcome = outcome;
+        this.isbn = isbn;
+        this.customerID = customerID;
+        this.bookTitle = bookTitle;
+        this.customerName = customerName;
+        this.dueDate = dueDate;
+    }
+
+    public LoanResult(Outcome outcome, int isbn, int customerID) {
+        this(outcome, isbn, customerID, null, null, null);
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public int getIsbn() {
+        return isbn;
+    }
+
+    public int getCustomerID() {
+        return customerID;
+    }
+
+    public String getBookTitle() {
+        return bookTitle;
+    }
+
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    public LocalDate getDueDate() {
+        return dueDate;
+    }
+}
@@ -0,0 +1,23 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A book that is out on loan, with its borrowers in customer ID order.
+ */
+public class LoanedBook {
+    private final BookRecord book;
+    private final List<CustomerRecord> borrowers;
+
+    public LoanedBook(BookRecord book, List<CustomerRecord> borrowers) {
+        this.book = book;
+        this.borrowers = Collections.unmodifiableList(borrowers);
+    }
+
+    public BookRecord getBook() {
+        return book;
+    }
+
+    public List<CustomerRecord> getBorrowers() {
+        return borrowers;
+    }
+}
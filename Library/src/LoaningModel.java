@@ -4,184 +4,379 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.DateFormatSymbols;
 import java.util.Calendar;
+import java.util.function.IntSupplier;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 
 public class LoaningModel {
+    // Lock the customer and the book, take a copy and record the loan, returning the names for the result
+    private static final String BORROW_SINGLE_TRIP = "WITH cust AS ("
+            + " SELECT CustomerID, F_Name, L_Name FROM Customer WHERE CustomerID = ? FOR UPDATE"
+            + "), book AS ("
+            + " SELECT ISBN, Title FROM Book WHERE ISBN = ? AND EXISTS (SELECT 1 FROM cust) FOR UPDATE"
+            + "), taken AS ("
+            + " UPDATE Book b SET NumLeft = b.NumLeft - 1 FROM book"
+            + " WHERE b.ISBN = book.ISBN AND b.NumLeft > 0 RETURNING b.ISBN"
+            + "), loan AS ("
+            + " INSERT INTO Cust_Book (CustomerID, DueDate, ISBN)"
+            + " SELECT cust.CustomerID, CAST(? AS DATE), taken.ISBN FROM cust, taken RETURNING ISBN"
+            + ")"
+            + " SELECT cust.CustomerID, cust.F_Name, cust.L_Name, book.Title,"
+            + " (SELECT COUNT(*) FROM loan) AS Borrowed"
+            + " FROM (VALUES (1)) AS one (x) LEFT JOIN cust ON true LEFT JOIN book ON true";
+
+    // Remove the loan and put the copy back, returning how many loans were removed
+    private static final String RETURN_SINGLE_TRIP = "WITH loan AS ("
+            + " DELETE FROM Cust_Book WHERE ISBN = ? AND CustomerID = ? RETURNING ISBN"
+            + "), returned AS ("
+            + " UPDATE Book SET NumLeft = NumLeft + 1 WHERE ISBN IN (SELECT ISBN FROM loan) RETURNING ISBN"
+            + ")"
+            + " SELECT COUNT(*) AS Returned FROM loan";
+
+    // SQLSTATE raised when a loan refers to a customer that does not exist
+    private static final String FOREIGN_KEY_VIOLATION = "23503";
+
+    // SQLSTATE raised when a customer borrows a book they already have on loan
+    private static final String UNIQUE_VIOLATION = "23505";
+
     private final JFrame parent;
-    private final Connection conn;
+    private final ConnectionRouter router;
+    private final CatalogueCache cache;
+    private final LookupIndexes lookups;
+    private volatile LoanMode mode = LoanMode.INTERACTIVE;
+    private volatile IntSupplier pauseHandler = this::showPauseDialog;
 
-    public LoaningModel(JFrame parent, Connection conn) {
+    public LoaningModel(JFrame parent, ConnectionRouter router, CatalogueCache cache, LookupIndexes lookups) {
         this.parent = parent;
-        this.conn = conn;
+        this.router = router;
+        this.cache = cache;
+        this.lookups = lookups;
+    }
+
+    public LoanMode getMode() {
+        return mode;
+    }
+
+    // Choose how later borrows and returns are run
+    public void setMode(LoanMode mode) {
+        this.mode = mode;
+    }
+
+    // Replace the confirmation dialog shown while interactive loans hold their locks, such as to simulate
+    // a user in a load test; the handler returns a JOptionPane option
+    public void setPauseHandler(IntSupplier pauseHandler) {
+        this.pauseHandler = pauseHandler;
     }
 
     // Borrow book by ISBN, customer ID and due date
     public String borrowBook(int isbn, int customerID, int day, int month, int year) {
         StringBuilder result = new StringBuilder("Borrow Book:\n");
         try {
-            // Start transaction
-            conn.setAutoCommit(false);
-
-            // Check if customer exists
-            if (!customerExists(customerID)) {
-                conn.rollback(); // Rollback transaction
-                String message = "Customer with ID " + customerID + " does not exist";
-                result.append(message);
-                return result.toString();
+            LoanResult loan = borrow(mode, isbn, customerID, toDueDate(day, month, year));
+            switch (loan.getOutcome()) {
+                case NO_SUCH_CUSTOMER:
+                    result.append("Customer with ID ").append(customerID).append(" does not exist");
+                    break;
+                case NO_COPIES_LEFT:
+                    result.append("No copies left of book with ISBN ").append(isbn);
+                    break;
+                case ALREADY_BORROWED:
+                    result.append("Customer with ID ").append(customerID).append(" already has book with ISBN ")
+                            .append(isbn).append(" on loan");
+                    break;
+                case CANCELLED:
+                    return null;
+                default:
+                    appendLoan(result, isbn, loan.getBookTitle(), customerID, loan.getCustomerName(), day, month,
+                            year);
+                    break;
             }
+            return result.toString();
+        } catch (SQLException e) {
+            LibraryUtils.showErrorMessage(parent, e.getMessage(), "Borrow Book");
+            return null;
+        }
+    }
 
-            // Lock the customer record
-            lockCust(customerID);
-
-            // Check if there are available copies
-            int copiesLeft = getAvailableCopies(isbn);
-            if (copiesLeft <= 0) {
-                conn.rollback(); // Rollback transaction
-                String message = "No copies left of book with ISBN " + isbn;
-                result.append(message);
-                return result.toString();
+    // Borrow a book in the given mode; only the interactive mode pauses for confirmation. The loan's
+    // primary key rejects a second loan of the same book to the same customer, after any rollback
+    public LoanResult borrow(LoanMode loanMode, int isbn, int customerID, java.sql.Date dueDate)
+            throws SQLException {
+        try {
+            switch (loanMode) {
+                case SINGLE_TRIP:
+                    return borrowSingleTrip(isbn, customerID, dueDate);
+                case OPTIMISTIC:
+                    return borrowOptimistic(isbn, customerID, dueDate);
+                default:
+                    return borrowInteractive(isbn, customerID, dueDate);
             }
+        } catch (SQLException e) {
+            if (!UNIQUE_VIOLATION.equals(e.getSQLState())) {
+                throw e;
+            }
+            return new LoanResult(LoanResult.Outcome.ALREADY_BORROWED, isbn, customerID);
+        }
+    }
+
+    // Borrow book holding locks on the customer and book while the user confirms
+    private LoanResult borrowInteractive(int isbn, int customerID, java.sql.Date dueDate) throws SQLException {
+        try (Connection conn = router.getConnection()) {
+            try {
+                // Start transaction, auto-commit is restored when the connection returns to the pool
+                conn.setAutoCommit(false);
+
+                // Check if customer exists
+                if (!customerExists(conn, customerID)) {
+                    conn.rollback(); // Rollback transaction
+                    LibraryMetrics.markRolledBack();
+                    return new LoanResult(LoanResult.Outcome.NO_SUCH_CUSTOMER, isbn, customerID);
+                }
 
-            // Lock the book record
-            lockBook(isbn);
+                // Lock the customer record
+                lockCust(conn, customerID);
+
+                // Check if there are available copies
+                int copiesLeft = getAvailableCopies(conn, isbn);
+                if (copiesLeft <= 0) {
+                    conn.rollback(); // Rollback transaction
+                    LibraryMetrics.markRolledBack();
+                    return new LoanResult(LoanResult.Outcome.NO_COPIES_LEFT, isbn, customerID);
+                }
 
-            // Show pop-up window asking the user to click "OK" to continue
-            int option = pause();
-            if (option != JOptionPane.OK_OPTION) {
-                // If the user cancels or closes the dialog, rollback the transaction and return
-                conn.rollback();
-                return null;
+                // Lock the book record
+                lockBook(conn, isbn);
+
+                // Show pop-up window asking the user to click "OK" to continue
+                int option = pause();
+                if (option != JOptionPane.OK_OPTION) {
+                    // If the user cancels or closes the dialog, rollback the transaction and return
+                    conn.rollback();
+                    LibraryMetrics.markRolledBack();
+                    return new LoanResult(LoanResult.Outcome.CANCELLED, isbn, customerID);
+                }
+
+                // Borrow book
+                decrementCopiesLeft(conn, isbn);
+                insertBorrowingRecord(conn, customerID, dueDate, isbn);
+
+                // Commit transaction
+                conn.commit();
+                cache.invalidateBook(isbn);
+                lookups.lendBook(isbn);
+
+                // Construct result
+                return new LoanResult(LoanResult.Outcome.BORROWED, isbn, customerID, getBookTitle(conn, isbn),
+                        getCustomerName(conn, customerID), dueDate.toLocalDate());
+            } catch (SQLException e) {
+                throw LibraryUtils.rollback(conn, e);
+            }
+        }
+    }
+
+    // Borrow book in one statement, without pausing for confirmation
+    private LoanResult borrowSingleTrip(int isbn, int customerID, java.sql.Date dueDate) throws SQLException {
+        if (customerID == 0) {
+            return new LoanResult(LoanResult.Outcome.NO_SUCH_CUSTOMER, isbn, customerID);
+        }
+        try (Connection conn = router.getConnection()) {
+            PreparedStatement borrowStmt = StatementCache.prepare(conn, "loan.borrowSingleTrip", BORROW_SINGLE_TRIP);
+            borrowStmt.setInt(1, customerID);
+            borrowStmt.setInt(2, isbn);
+            borrowStmt.setDate(3, dueDate);
+            try (ResultSet borrowRs = borrowStmt.executeQuery()) {
+                borrowRs.next();
+                borrowRs.getInt("CustomerID");
+                if (borrowRs.wasNull()) {
+                    return new LoanResult(LoanResult.Outcome.NO_SUCH_CUSTOMER, isbn, customerID);
+                } else if (borrowRs.getInt("Borrowed") == 0) {
+                    return new LoanResult(LoanResult.Outcome.NO_COPIES_LEFT, isbn, customerID);
+                }
+                router.noteWrite(conn);
+                cache.invalidateBook(isbn);
+                lookups.lendBook(isbn);
+                return new LoanResult(LoanResult.Outcome.BORROWED, isbn, customerID,
+                        borrowRs.getString("Title").trim(),
+                        formatName(borrowRs.getString("F_Name"), borrowRs.getString("L_Name")),
+                        dueDate.toLocalDate());
             }
+        }
+    }
 
-            // Borrow book
-            decrementCopiesLeft(isbn);
-            insertBorrowingRecord(customerID, day, month, year, isbn);
+    // Borrow book with a conditional update and a constraint-checked insert, taking no locks up front
+    private LoanResult borrowOptimistic(int isbn, int customerID, java.sql.Date dueDate) throws SQLException {
+        if (customerID == 0) {
+            return new LoanResult(LoanResult.Outcome.NO_SUCH_CUSTOMER, isbn, customerID);
+        }
+        try (Connection conn = router.getConnection()) {
+            try {
+                // Start transaction, auto-commit is restored when the connection returns to the pool
+                conn.setAutoCommit(false);
+
+                // Take a copy only if one is left
+                if (!takeCopy(conn, isbn)) {
+                    conn.rollback();
+                    LibraryMetrics.markRolledBack();
+                    return new LoanResult(LoanResult.Outcome.NO_COPIES_LEFT, isbn, customerID);
+                }
 
-            // Commit transaction
-            conn.commit();
+                // The customer foreign key rejects loans to unknown customers
+                try {
+                    insertBorrowingRecord(conn, customerID, dueDate, isbn);
+                } catch (SQLException e) {
+                    if (!FOREIGN_KEY_VIOLATION.equals(e.getSQLState())) {
+                        throw e;
+                    }
+                    conn.rollback();
+                    LibraryMetrics.markRolledBack();
+                    return new LoanResult(LoanResult.Outcome.NO_SUCH_CUSTOMER, isbn, customerID);
+                }
 
-            // Construct result message
-            String customerName = getCustomerName(customerID);
-            result.append("\tBook: ").append(isbn).append(" (").append(getBookTitle(isbn)).append(")\n")
-                    .append("\tLoaned to: ").append(customerID).append(" (").append(customerName)
-                    .append(")\n")
-                    .append("\tDue Date: ").append(day).append(" ").append(getMonthName(month)).append(" ")
-                    .append(year);
-            return result.toString();
-        } catch (SQLException ex) {
-            LibraryUtils.handleRollback(parent, conn, ex.getMessage(), "Borrow Book");
-            return null;
-        } finally {
-            LibraryUtils.restoreAutoCommit(parent, conn, "Borrow Book"); // Restore auto-commit
+                // Commit transaction
+                conn.commit();
+                cache.invalidateBook(isbn);
+                lookups.lendBook(isbn);
+
+                // Construct result
+                return new LoanResult(LoanResult.Outcome.BORROWED, isbn, customerID, getBookTitle(conn, isbn),
+                        getCustomerName(conn, customerID), dueDate.toLocalDate());
+            } catch (SQLException e) {
+                throw LibraryUtils.rollback(conn, e);
+            }
         }
     }
 
+    // Decrement copies left if any remain, returning whether a copy was taken
+    private boolean takeCopy(Connection conn, int isbn) throws SQLException {
+        String takeQuery = "UPDATE Book SET NumLeft = NumLeft - 1 WHERE ISBN = ? AND NumLeft > 0";
+        PreparedStatement takeStmt = StatementCache.prepare(conn, "loan.takeCopy", takeQuery);
+        takeStmt.setInt(1, isbn);
+        return takeStmt.executeUpdate() > 0;
+    }
+
+    // Append the details of a new loan to output
+    private void appendLoan(StringBuilder output, int isbn, String title, int customerID, String customerName,
+            int day, int month, int year) {
+        output.append("\tBook: ").append(isbn).append(" (").append(title).append(")\n")
+                .append("\tLoaned to: ").append(customerID).append(" (").append(customerName).append(")\n")
+                .append("\tDue Date: ").append(day).append(" ").append(getMonthName(month)).append(" ")
+                .append(year);
+    }
+
     // Check validity of customer ID
-    private boolean customerExists(int customerID) throws SQLException {
+    private boolean customerExists(Connection conn, int customerID) throws SQLException {
         if (customerID == 0) {
             return false;
         }
 
         String customerQuery = "SELECT * FROM Customer WHERE CustomerID = ?";
-        try (PreparedStatement customerStmt = conn.prepareStatement(customerQuery)) {
-            customerStmt.setInt(1, customerID);
-            try (ResultSet customerRs = customerStmt.executeQuery()) {
-                return customerRs.next();
-            }
+        PreparedStatement customerStmt = StatementCache.prepare(conn, "loan.customerExists", customerQuery);
+        customerStmt.setInt(1, customerID);
+        try (ResultSet customerRs = customerStmt.executeQuery()) {
+            return customerRs.next();
         }
     }
 
     // Lock customer
-    private void lockCust(int customerID) throws SQLException {
+    private void lockCust(Connection conn, int customerID) throws SQLException {
         String lockQuery = "SELECT * FROM Customer WHERE CustomerID = ? FOR UPDATE";
-        try (PreparedStatement lockStmt = conn.prepareStatement(lockQuery)) {
-            lockStmt.setInt(1, customerID);
-            lockStmt.executeQuery();
-        }
+        PreparedStatement lockStmt = StatementCache.prepare(conn, "loan.lockCustomer", lockQuery);
+        lockStmt.setInt(1, customerID);
+        lockStmt.executeQuery().close();
     }
 
     // Check available copies
-    private int getAvailableCopies(int isbn) throws SQLException {
+    private int getAvailableCopies(Connection conn, int isbn) throws SQLException {
         String bookQuery = "SELECT NumLeft FROM Book WHERE ISBN = ?";
-        try (PreparedStatement bookStmt = conn.prepareStatement(bookQuery)) {
-            bookStmt.setInt(1, isbn);
-            try (ResultSet bookRs = bookStmt.executeQuery()) {
-                if (bookRs.next()) {
-                    return bookRs.getInt("NumLeft");
-                }
+        PreparedStatement bookStmt = StatementCache.prepare(conn, "loan.copiesLeft", bookQuery);
+        bookStmt.setInt(1, isbn);
+        try (ResultSet bookRs = bookStmt.executeQuery()) {
+            if (bookRs.next()) {
+                return bookRs.getInt("NumLeft");
             }
         }
         return 0;
     }
 
     // Lock book
-    private void lockBook(int isbn) throws SQLException {
+    private void lockBook(Connection conn, int isbn) throws SQLException {
         String lockQuery = "SELECT * FROM Book WHERE ISBN = ? FOR UPDATE";
-        try (PreparedStatement lockStmt = conn.prepareStatement(lockQuery)) {
-            lockStmt.setInt(1, isbn);
-            lockStmt.executeQuery();
-        }
+        PreparedStatement lockStmt = StatementCache.prepare(conn, "loan.lockBook", lockQuery);
+        lockStmt.setInt(1, isbn);
+        lockStmt.executeQuery().close();
     }
 
     private int pause() {
+        return pauseHandler.getAsInt();
+    }
+
+    // Ask the user to confirm while the locks are held
+    private int showPauseDialog() {
         String lockMessage = "Locked the tuples, ready to update. Click OK to continue";
-        return JOptionPane.showConfirmDialog(parent, lockMessage, "Pausing",
-                JOptionPane.OK_CANCEL_OPTION, JOptionPane.INFORMATION_MESSAGE);
+        Integer option = LibraryUtils.callOnEventThread(() -> JOptionPane.showConfirmDialog(parent, lockMessage,
+                "Pausing", JOptionPane.OK_CANCEL_OPTION, JOptionPane.INFORMATION_MESSAGE));
+
+        // Treat an interrupted wait as a cancel
+        return option == null ? JOptionPane.CANCEL_OPTION : option;
     }
 
     // Add new borrowed book entry
-    private void insertBorrowingRecord(int customerID, int day, int month, int year, int isbn)
+    private void insertBorrowingRecord(Connection conn, int customerID, java.sql.Date dueDate, int isbn)
             throws SQLException {
         String borrowQuery = "INSERT INTO Cust_Book (CustomerID, DueDate, ISBN) VALUES (?, ?, ?)";
-        try (PreparedStatement borrowStmt = conn.prepareStatement(borrowQuery)) {
-            borrowStmt.setInt(1, customerID);
-            Calendar calendar = Calendar.getInstance();
-            calendar.set(year, month - 1, day); // Correctly setting the due date
-            java.util.Date utilDueDate = calendar.getTime();
-            java.sql.Date sqlDueDate = new java.sql.Date(utilDueDate.getTime());
-            borrowStmt.setDate(2, sqlDueDate);
-            borrowStmt.setInt(3, isbn);
-            borrowStmt.executeUpdate();
-        }
+        PreparedStatement borrowStmt = StatementCache.prepare(conn, "loan.insert", borrowQuery);
+        borrowStmt.setInt(1, customerID);
+        borrowStmt.setDate(2, dueDate);
+        borrowStmt.setInt(3, isbn);
+        borrowStmt.executeUpdate();
+    }
+
+    // Convert the due date fields to a SQL date
+    private java.sql.Date toDueDate(int day, int month, int year) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(year, month - 1, day); // Correctly setting the due date
+        java.util.Date utilDueDate = calendar.getTime();
+        return new java.sql.Date(utilDueDate.getTime());
     }
 
     // Decrement copies left in book entry
-    private void decrementCopiesLeft(int isbn) throws SQLException {
+    private void decrementCopiesLeft(Connection conn, int isbn) throws SQLException {
         String updateQuery = "UPDATE Book SET NumLeft = NumLeft - 1 WHERE ISBN = ?";
-        try (PreparedStatement updateStmt = conn.prepareStatement(updateQuery)) {
-            updateStmt.setInt(1, isbn);
-            updateStmt.executeUpdate();
-        }
+        PreparedStatement updateStmt = StatementCache.prepare(conn, "loan.decrement", updateQuery);
+        updateStmt.setInt(1, isbn);
+        updateStmt.executeUpdate();
     }
 
     // Get customer information
-    private String getCustomerName(int customerID) throws SQLException {
+    private String getCustomerName(Connection conn, int customerID) throws SQLException {
         String customerName = "";
         String customerInfoQuery = "SELECT F_Name, L_Name FROM Customer WHERE CustomerID = ?";
-        try (PreparedStatement customerInfoStmt = conn.prepareStatement(customerInfoQuery)) {
-            customerInfoStmt.setInt(1, customerID);
-            try (ResultSet customerInfoRs = customerInfoStmt.executeQuery()) {
-                if (customerInfoRs.next()) {
-                    String firstName = customerInfoRs.getString("F_Name");
-                    String lastName = customerInfoRs.getString("L_Name");
-                    customerName = firstName.trim() + " " + lastName.trim();
-                }
+        PreparedStatement customerInfoStmt = StatementCache.prepare(conn, "loan.customerName", customerInfoQuery);
+        customerInfoStmt.setInt(1, customerID);
+        try (ResultSet customerInfoRs = customerInfoStmt.executeQuery()) {
+            if (customerInfoRs.next()) {
+                customerName = formatName(customerInfoRs.getString("F_Name"), customerInfoRs.getString("L_Name"));
             }
         }
         return customerName;
     }
 
+    // Join a customer's names, either of which may be missing
+    private static String formatName(String firstName, String lastName) {
+        String first = firstName == null ? "" : firstName.trim();
+        String last = lastName == null ? "" : lastName.trim();
+        return first.isEmpty() ? last : last.isEmpty() ? first : first + " " + last;
+    }
+
     // Get book information
-    private String getBookTitle(int isbn) throws SQLException {
+    private String getBookTitle(Connection conn, int isbn) throws SQLException {
         String bookTitle = "";
         String titleQuery = "SELECT Title FROM Book WHERE ISBN = ?";
-        try (PreparedStatement titleStmt = conn.prepareStatement(titleQuery)) {
-            titleStmt.setInt(1, isbn);
-            try (ResultSet titleRs = titleStmt.executeQuery()) {
-                if (titleRs.next()) {
-                    bookTitle = titleRs.getString("Title");
-                }
+        PreparedStatement titleStmt = StatementCache.prepare(conn, "loan.bookTitle", titleQuery);
+        titleStmt.setInt(1, isbn);
+        try (ResultSet titleRs = titleStmt.executeQuery()) {
+            if (titleRs.next()) {
+                bookTitle = titleRs.getString("Title");
             }
         }
         return bookTitle.trim();
@@ -198,77 +393,115 @@ public class LoaningModel {
     public String returnBook(int isbn, int customerID) {
         StringBuilder result = new StringBuilder("Return Book:\n");
         try {
-            // Start transaction
-            conn.setAutoCommit(false);
-
-            // Check if book is borrowed by specified customer
-            if (!bookIsBorrowed(isbn, customerID)) {
-                conn.rollback();
-                String message = "\tBook " + isbn + " is not loaned to customer " + customerID;
-                result.append(message);
-                return result.toString();
+            LoanResult loan = returnLoan(mode, isbn, customerID);
+            switch (loan.getOutcome()) {
+                case NOT_LOANED:
+                    result.append("\tBook ").append(isbn).append(" is not loaned to customer ").append(customerID);
+                    break;
+                case CANCELLED:
+                    return null;
+                default:
+                    result.append("\tBook ").append(isbn).append(" returned for customer ").append(customerID);
+                    break;
             }
+            return result.toString();
+        } catch (SQLException e) {
+            LibraryUtils.showErrorMessage(parent, e.getMessage(), "Return Book");
+            return null;
+        }
+    }
 
-            // Lock customer
-            lockCust(customerID);
+    // Return a book in the given mode; both non-interactive modes use a single statement
+    public LoanResult returnLoan(LoanMode loanMode, int isbn, int customerID) throws SQLException {
+        if (loanMode != LoanMode.INTERACTIVE) {
+            return returnSingleTrip(isbn, customerID);
+        }
+        try (Connection conn = router.getConnection()) {
+            try {
+                // Start transaction, auto-commit is restored when the connection returns to the pool
+                conn.setAutoCommit(false);
+
+                // Check if book is borrowed by specified customer
+                if (!bookIsBorrowed(conn, isbn, customerID)) {
+                    conn.rollback();
+                    LibraryMetrics.markRolledBack();
+                    return new LoanResult(LoanResult.Outcome.NOT_LOANED, isbn, customerID);
+                }
 
-            // Lock the book record
-            lockBook(isbn);
+                // Lock customer
+                lockCust(conn, customerID);
 
-            // Show pop-up window asking the user to click "OK" to continue
-            int option = pause();
-            if (option != JOptionPane.OK_OPTION) {
-                // If the user cancels or closes the dialog, rollback the transaction and return
-                conn.rollback();
-                return null;
-            }
+                // Lock the book record
+                lockBook(conn, isbn);
 
-            // Return book
-            removeBorrowingRecord(isbn, customerID);
-            incrementCopiesLeft(isbn);
+                // Show pop-up window asking the user to click "OK" to continue
+                int option = pause();
+                if (option != JOptionPane.OK_OPTION) {
+                    // If the user cancels or closes the dialog, rollback the transaction and return
+                    conn.rollback();
+                    LibraryMetrics.markRolledBack();
+                    return new LoanResult(LoanResult.Outcome.CANCELLED, isbn, customerID);
+                }
 
-            // Finish transaction
-            conn.commit();
+                // Return book
+                removeBorrowingRecord(conn, isbn, customerID);
+                incrementCopiesLeft(conn, isbn);
+
+                // Finish transaction
+                conn.commit();
+                cache.invalidateBook(isbn);
+                lookups.returnBook(isbn);
+                return new LoanResult(LoanResult.Outcome.RETURNED, isbn, customerID);
+            } catch (SQLException e) {
+                throw LibraryUtils.rollback(conn, e);
+            }
+        }
+    }
 
-            // Construct result mesage
-            result.append("\tBook ").append(isbn).append(" returned for customer ").append(customerID);
-            return result.toString();
-        } catch (SQLException e) {
-            LibraryUtils.handleRollback(parent, conn, e.getMessage(), "Return Book");
-            return null;
-        } finally {
-            LibraryUtils.restoreAutoCommit(parent, conn, "Return Book");
+    // Return book in one statement, without pausing for confirmation
+    private LoanResult returnSingleTrip(int isbn, int customerID) throws SQLException {
+        try (Connection conn = router.getConnection()) {
+            PreparedStatement returnStmt = StatementCache.prepare(conn, "loan.returnSingleTrip", RETURN_SINGLE_TRIP);
+            returnStmt.setInt(1, isbn);
+            returnStmt.setInt(2, customerID);
+            try (ResultSet returnRs = returnStmt.executeQuery()) {
+                returnRs.next();
+                if (returnRs.getInt("Returned") == 0) {
+                    return new LoanResult(LoanResult.Outcome.NOT_LOANED, isbn, customerID);
+                }
+            }
+            router.noteWrite(conn);
+            cache.invalidateBook(isbn);
+            lookups.returnBook(isbn);
+            return new LoanResult(LoanResult.Outcome.RETURNED, isbn, customerID);
         }
     }
 
     // Check that book is loaned and customer ID is correct
-    private boolean bookIsBorrowed(int isbn, int customerID) throws SQLException {
+    private boolean bookIsBorrowed(Connection conn, int isbn, int customerID) throws SQLException {
         String borrowCheckQuery = "SELECT * FROM Cust_Book WHERE ISBN = ? AND CustomerID = ? FOR UPDATE";
-        try (PreparedStatement borrowCheckStmt = conn.prepareStatement(borrowCheckQuery)) {
-            borrowCheckStmt.setInt(1, isbn);
-            borrowCheckStmt.setInt(2, customerID);
-            try (ResultSet borrowCheckRs = borrowCheckStmt.executeQuery()) {
-                return borrowCheckRs.next();
-            }
+        PreparedStatement borrowCheckStmt = StatementCache.prepare(conn, "loan.isBorrowed", borrowCheckQuery);
+        borrowCheckStmt.setInt(1, isbn);
+        borrowCheckStmt.setInt(2, customerID);
+        try (ResultSet borrowCheckRs = borrowCheckStmt.executeQuery()) {
+            return borrowCheckRs.next();
         }
     }
 
     // Delete borrowed book entry
-    private void removeBorrowingRecord(int isbn, int customerID) throws SQLException {
+    private void removeBorrowingRecord(Connection conn, int isbn, int customerID) throws SQLException {
         String returnQuery = "DELETE FROM Cust_Book WHERE ISBN = ? AND CustomerID = ?";
-        try (PreparedStatement returnStmt = conn.prepareStatement(returnQuery)) {
-            returnStmt.setInt(1, isbn);
-            returnStmt.setInt(2, customerID);
-            returnStmt.executeUpdate();
-        }
+        PreparedStatement returnStmt = StatementCache.prepare(conn, "loan.delete", returnQuery);
+        returnStmt.setInt(1, isbn);
+        returnStmt.setInt(2, customerID);
+        returnStmt.executeUpdate();
     }
 
     // Increment copies left in book entry
-    private void incrementCopiesLeft(int isbn) throws SQLException {
+    private void incrementCopiesLeft(Connection conn, int isbn) throws SQLException {
         String updateQuery = "UPDATE Book SET NumLeft = NumLeft + 1 WHERE ISBN = ?";
-        try (PreparedStatement updateStmt = conn.prepareStatement(updateQuery)) {
-            updateStmt.setInt(1, isbn);
-            updateStmt.executeUpdate();
-        }
+        PreparedStatement updateStmt = StatementCache.prepare(conn, "loan.increment", updateQuery);
+        updateStmt.setInt(1, isbn);
+        updateStmt.executeUpdate();
     }
 }
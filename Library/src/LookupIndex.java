@@ -0,0 +1,272 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * An in-memory prefix index of IDs and names, answering type-ahead
+ * suggestions without a round trip to the database.
+ *
+ * Entries are held in arrays sorted by ID. Each word of an entry's name, and
+ * its ID written out in digits, is a key. The keys are kept in one sorted
+ * array beside the position of the entry each belongs to, so the keys
+ * starting with a prefix are a single run found by binary search. A word
+ * shared by many names, such as a common surname, is stored once. Only the
+ * copies left of a book change in place; removing an entry gives a new index.
+ */
+public class LookupIndex {
+    public static final LookupIndex EMPTY = new Builder().build();
+
+    private final int[] ids;
+    private final String[] labels;
+
+    // The words and ID of each entry, each preceded by a space, for checking the other typed words
+    private final String[] words;
+
+    // Copies left of each entry, or null for an index of things that are not lent out
+    private final AtomicIntegerArray available;
+
+    private final String[] keys;
+    private final int[] keyEntries;
+
+    private LookupIndex(int[] ids, String[] labels, String[] words, AtomicIntegerArray available, String[] keys,
+            int[] keyEntries) {
+        this.ids = ids;
+        this.labels = labels;
+        this.words = words;
+        this.available = available;
+        this.keys = keys;
+        this.keyEntries = keyEntries;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    // Up to limit entries with a word starting with every typed word, in alphabetical order of the first match
+    public List<Suggestion> suggest(String typed, int limit) {
+        List<Suggestion> suggestions = new ArrayList<>();
+        String[] typedWords = split(typed);
+        if (typedWords.length == 0) {
+            return suggestions;
+        }
+
+        // Scan the keys for the longest word, which matches the fewest, and check the others against each entry
+        String longest = typedWords[0];
+        for (String word : typedWords) {
+            if (word.length() > longest.length()) {
+                longest = word;
+            }
+        }
+        int[] found = new int[limit];
+        for (int k = lowerBound(longest); k < keys.length && keys[k].startsWith(longest)
+                && suggestions.size() < limit; k++) {
+            int entry = keyEntries[k];
+            if (isFound(found, suggestions.size(), entry) || !hasEveryWord(entry, typedWords)) {
+                continue;
+            }
+            found[suggestions.size()] = entry;
+            suggestions.add(new Suggestion(ids[entry], labels[entry], available == null ? -1 : available.get(entry)));
+        }
+        return suggestions;
+    }
+
+    // Change the copies left of an entry by delta, returning false if there is no such entry
+    public boolean adjustAvailable(int id, int delta) {
+        int entry = Arrays.binarySearch(ids, id);
+        if (entry < 0 || available == null) {
+            return false;
+        }
+        available.addAndGet(entry, delta);
+        return true;
+    }
+
+    // Set the copies left of an entry, as read again from the database
+    public void setAvailable(int id, int copiesLeft) {
+        int entry = Arrays.binarySearch(ids, id);
+        if (entry >= 0 && available != null) {
+            available.set(entry, copiesLeft);
+        }
+    }
+
+    // This index without the given entry, or this index if it has no such entry
+    public LookupIndex remove(int id) {
+        int removed = Arrays.binarySearch(ids, id);
+        if (removed < 0) {
+            return this;
+        }
+
+        int size = ids.length - 1;
+        int[] newIds = new int[size];
+        String[] newLabels = new String[size];
+        String[] newWords = new String[size];
+        AtomicIntegerArray newAvailable = available == null ? null : new AtomicIntegerArray(size);
+        for (int entry = 0, to = 0; entry < ids.length; entry++) {
+            if (entry == removed) {
+                continue;
+            }
+            newIds[to] = ids[entry];
+            newLabels[to] = labels[entry];
+            newWords[to] = words[entry];
+            if (newAvailable != null) {
+                newAvailable.set(to, available.get(entry));
+            }
+            to++;
+        }
+
+        // Drop the removed entry's keys and close the gap it leaves in the positions of the rest
+        int keyCount = 0;
+        for (int entry : keyEntries) {
+            if (entry != removed) {
+                keyCount++;
+            }
+        }
+        String[] newKeys = new String[keyCount];
+        int[] newKeyEntries = new int[keyCount];
+        for (int k = 0, to = 0; k < keys.length; k++) {
+            int entry = keyEntries[k];
+            if (entry != removed) {
+                newKeys[to] = keys[k];
+                newKeyEntries[to] = entry > removed ? entry - 1 : entry;
+                to++;
+            }
+        }
+        return new LookupIndex(newIds, newLabels, newWords, newAvailable, newKeys, newKeyEntries);
+    }
+
+    // Position of the first key not before the prefix
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(prefix) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static boolean isFound(int[] found, int count, int entry) {
+        for (int i = 0; i < count; i++) {
+            if (found[i] == entry) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Does some word of the entry start with each typed word
+    private boolean hasEveryWord(int entry, String[] typedWords) {
+        String text = words[entry];
+        for (String typed : typedWords) {
+            int at = text.indexOf(typed);
+            while (at > 0 && text.charAt(at - 1) != ' ') {
+                at = text.indexOf(typed, at + 1);
+            }
+            if (at < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Lower-case words of a name or of what was typed, ignoring punctuation
+    private static String[] split(String text) {
+        List<String> words = new ArrayList<>();
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word);
+            }
+        }
+        return words.toArray(new String[0]);
+    }
+
+    /**
+     * Collects entries in any order and sorts them into an index.
+     */
+    public static class Builder {
+        private final Map<String, String> sharedWords = new HashMap<>();
+        private int[] ids = new int[64];
+        private String[] labels = new String[64];
+        private int[] available = new int[64];
+        private boolean counted;
+        private int size;
+
+        // Add an entry that is not lent out
+        public Builder add(int id, String label) {
+            return add(id, label, -1);
+        }
+
+        // Add a book with its copies left
+        public Builder add(int id, String label, int copiesLeft) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                labels = Arrays.copyOf(labels, size * 2);
+                available = Arrays.copyOf(available, size * 2);
+            }
+            ids[size] = id;
+            labels[size] = label;
+            available[size] = copiesLeft;
+            counted |= copiesLeft >= 0;
+            size++;
+            return this;
+        }
+
+        public LookupIndex build() {
+            // Put the entries in ID order
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(ids[a], ids[b]));
+
+            int[] sortedIds = new int[size];
+            String[] sortedLabels = new String[size];
+            String[] entryWords = new String[size];
+            AtomicIntegerArray sortedAvailable = counted ? new AtomicIntegerArray(size) : null;
+            List<String> entryKeys = new ArrayList<>();
+            List<Integer> keyOwners = new ArrayList<>();
+            for (int entry = 0; entry < size; entry++) {
+                int from = order[entry];
+                sortedIds[entry] = ids[from];
+                sortedLabels[entry] = labels[from];
+                if (sortedAvailable != null) {
+                    sortedAvailable.set(entry, available[from]);
+                }
+
+                // Key the entry by each word of its name and by its ID
+                StringBuilder text = new StringBuilder();
+                for (String word : split(labels[from])) {
+                    word = sharedWords.computeIfAbsent(word, w -> w);
+                    entryKeys.add(word);
+                    keyOwners.add(entry);
+                    text.append(' ').append(word);
+                }
+                String id = Integer.toString(ids[from]);
+                entryKeys.add(id);
+                keyOwners.add(entry);
+                entryWords[entry] = text.append(' ').append(id).toString();
+            }
+
+            // Sort the keys, keeping each beside its entry
+            Integer[] keyOrder = new Integer[entryKeys.size()];
+            for (int k = 0; k < keyOrder.length; k++) {
+                keyOrder[k] = k;
+            }
+            Arrays.sort(keyOrder, (a, b) -> entryKeys.get(a).compareTo(entryKeys.get(b)));
+            String[] keys = new String[keyOrder.length];
+            int[] keyEntries = new int[keyOrder.length];
+            for (int k = 0; k < keyOrder.length; k++) {
+                keys[k] = entryKeys.get(keyOrder[k]);
+                keyEntries[k] = keyOwners.get(keyOrder[k]);
+            }
+            return new LookupIndex(sortedIds, sortedLabels, entryWords, sortedAvailable, keys, keyEntries);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The type-ahead indexes behind the book, author and customer lookup
+ * dialogs, shared by the models that change what they list.
+ *
+ * Indexes are built from the database once at startup and again after bulk
+ * loads, then kept current as books, authors and customers are deleted and
+ * books are lent and returned. Suggestions read whichever index is current
+ * without locking.
+ *
+ * A rebuild takes a while, and loans and deletes carry on meanwhile. Rather
+ * than discarding a rebuild that raced with them, which under steady loan
+ * traffic could happen every time, each change made during a rebuild is
+ * noted against it. Deletions are applied to the rebuilt indexes as they are
+ * installed. Books lent or returned meanwhile are handed back to the
+ * rebuilder to read again, until a pass finds none.
+ */
+public class LookupIndexes {
+    private volatile LookupIndex books = LookupIndex.EMPTY;
+    private volatile LookupIndex authors = LookupIndex.EMPTY;
+    private volatile LookupIndex customers = LookupIndex.EMPTY;
+    private final List<Rebuild> rebuilds = new ArrayList<>();
+
+    public List<Suggestion> suggestBooks(String typed, int limit) {
+        return books.suggest(typed, limit);
+    }
+
+    public List<Suggestion> suggestAuthors(String typed, int limit) {
+        return authors.suggest(typed, limit);
+    }
+
+    public List<Suggestion> suggestCustomers(String typed, int limit) {
+        return customers.suggest(typed, limit);
+    }
+
+    // Start noting the changes a rebuild from the database may miss
+    public synchronized Rebuild startRebuild() {
+        Rebuild rebuild = new Rebuild();
+        rebuilds.add(rebuild);
+        return rebuild;
+    }
+
+    // Install rebuilt indexes, unless books were lent or returned since the last call: then return those
+    // ISBNs, whose copies left must be read again and set on the rebuilt book index before calling again
+    public synchronized Set<Integer> finishRebuild(Rebuild rebuild, LookupIndex books, LookupIndex authors,
+            LookupIndex customers) {
+        if (!rebuild.lentOrReturned.isEmpty()) {
+            Set<Integer> reread = new HashSet<>(rebuild.lentOrReturned);
+            rebuild.lentOrReturned.clear();
+            return reread;
+        }
+        for (int isbn : rebuild.removedBooks) {
+            books = books.remove(isbn);
+        }
+        for (int authorID : rebuild.removedAuthors) {
+            authors = authors.remove(authorID);
+        }
+        for (int customerID : rebuild.removedCustomers) {
+            customers = customers.remove(customerID);
+        }
+        this.books = books;
+        this.authors = authors;
+        this.customers = customers;
+        rebuilds.remove(rebuild);
+        return new HashSet<>();
+    }
+
+    // Stop noting changes for a rebuild, if it has not already been installed
+    public synchronized void abandonRebuild(Rebuild rebuild) {
+        rebuilds.remove(rebuild);
+    }
+
+    // Note that a copy of a book was lent
+    public synchronized void lendBook(int isbn) {
+        books.adjustAvailable(isbn, -1);
+        for (Rebuild rebuild : rebuilds) {
+            rebuild.lentOrReturned.add(isbn);
+        }
+    }
+
+    // Note that a copy of a book came back
+    public synchronized void returnBook(int isbn) {
+        books.adjustAvailable(isbn, 1);
+        for (Rebuild rebuild : rebuilds) {
+            rebuild.lentOrReturned.add(isbn);
+        }
+    }
+
+    public synchronized void removeBook(int isbn) {
+        books = books.remove(isbn);
+        for (Rebuild rebuild : rebuilds) {
+            rebuild.removedBooks.add(isbn);
+        }
+    }
+
+    public synchronized void removeAuthor(int authorID) {
+        authors = authors.remove(authorID);
+        for (Rebuild rebuild : rebuilds) {
+            rebuild.removedAuthors.add(authorID);
+        }
+    }
+
+    public synchronized void removeCustomer(int customerID) {
+        customers = customers.remove(customerID);
+        for (Rebuild rebuild : rebuilds) {
+            rebuild.removedCustomers.add(customerID);
+        }
+    }
+
+    // Summarise how many entries each index holds
+    public String getStats() {
+        return "Lookup Indexes:\n\t" + books.size() + " books, " + authors.size() + " authors, "
+                + customers.size() + " customers";
+    }
+
+    /**
+     * The changes made while one rebuild was reading the database.
+     */
+    public static class Rebuild {
+        private final Set<Integer> lentOrReturned = new HashSet<>();
+        private final List<Integer> removedBooks = new ArrayList<>();
+        private final List<Integer> removedAuthors = new ArrayList<>();
+        private final List<Integer> removedCustomers = new ArrayList<>();
+    }
+}
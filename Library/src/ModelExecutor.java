@@ -0,0 +1,48 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs model calls away from the Swing event dispatch thread.
+ *
+ * Each call gets its own virtual thread when the JVM supports them (Java 21
+ * and later) and a pooled daemon thread otherwise, and hands back a future
+ * for the result.
+ */
+public class ModelExecutor {
+    private final ExecutorService executor;
+
+    public ModelExecutor(String threadName) {
+        this.executor = newVirtualThreadExecutor(threadName);
+    }
+
+    // Start a model call and return a future for its result
+    public <T> CompletableFuture<T> submit(Supplier<T> call) {
+        return CompletableFuture.supplyAsync(call, executor);
+    }
+
+    // Stop accepting calls and interrupt any still running
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // Create an executor that starts a virtual thread per task, falling back to platform threads
+    public static ExecutorService newVirtualThreadExecutor(String threadName) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory threads = runnable -> {
+                Thread thread = new Thread(runnable, threadName + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newCachedThreadPool(threads);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and outcome counters for one library operation.
+ *
+ * A call that completes counts as a success, or as a rollback if it rolled
+ * its transaction back without changing anything, such as a deletion blocked
+ * by a loan. A call that throws counts as a failure. Latency is recorded for
+ * every call.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+    private final String name;
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder successes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rollbacks = new LongAdder();
+    private final LongAdder rowsReturned = new LongAdder();
+
+    public OperationMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Record a finished call
+    public void record(long nanos, boolean failed, boolean rolledBack, long rows) {
+        latency.record(nanos);
+        if (failed) {
+            failures.increment();
+        } else if (rolledBack) {
+            rollbacks.increment();
+        } else {
+            successes.increment();
+        }
+        rowsReturned.add(rows);
+    }
+
+    @Override
+    public long getCalls() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getSuccesses() {
+        return successes.sum();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    @Override
+    public long getRollbacks() {
+        return rollbacks.sum();
+    }
+
+    @Override
+    public long getRowsReturned() {
+        return rowsReturned.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getPercentile(50) / 1e6;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getPercentile(99) / 1e6;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return latency.getPercentile(99.9) / 1e6;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMax() / 1e6;
+    }
+
+    @Override
+    public void reset() {
+        latency.reset();
+        successes.reset();
+        failures.reset();
+        rollbacks.reset();
+        rowsReturned.reset();
+    }
+
+    // One line summary for the text snapshot
+    @Override
+    public String toString() {
+        return String.format("%s: %d calls (%d ok, %d failed, %d rolled back), %d rows, "
+                + "p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms", name, getCalls(), getSuccesses(),
+                getFailures(), getRollbacks(), getRowsReturned(), getP50Millis(), getP99Millis(), getP999Millis(),
+                getMaxMillis());
+    }
+}
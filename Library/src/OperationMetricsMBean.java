@@ -0,0 +1,27 @@
+/**
+ * JMX view of the metrics for one library operation. Times are in
+ * milliseconds.
+ */
+public interface OperationMetricsMBean {
+    long getCalls();
+
+    long getSuccesses();
+
+    long getFailures();
+
+    long getRollbacks();
+
+    long getRowsReturned();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+
+    void reset();
+}
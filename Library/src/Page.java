@@ -0,0 +1,27 @@
+/**
+ * One page of a keyset-paginated listing.
+ *
+ * The next token is the key of the last row on this page; passing it back
+ * fetches the rows that follow it. It is null on the last page.
+ */
+public class Page {
+    private final String text;
+    private final Integer nextToken;
+
+    public Page(String text, Integer nextToken) {
+        this.text = text;
+        this.nextToken = nextToken;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public Integer getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+}
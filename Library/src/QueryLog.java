@@ -0,0 +1,358 @@
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * Per-statement timings for the prepared statements the models run.
+ *
+ * StatementCache wraps every statement it prepares with trace(). Each
+ * execution records the query ID, bind values, time spent executing, time
+ * spent fetching rows from the result set and the rows read or changed.
+ * Totals are kept per query ID, and any execution slower than
+ * library.slowlog.thresholdMillis is written to a rotating log file set by
+ * library.slowlog.file, library.slowlog.limitBytes and library.slowlog.count.
+ * Query IDs listed in library.slowlog.explain (or * for all) also have their
+ * slow SELECTs run again under EXPLAIN (ANALYZE, BUFFERS), with the plan
+ * written alongside. That runs the query a second time, so leave it off
+ * unless a plan is needed.
+ */
+public class QueryLog {
+    private static final long THRESHOLD_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(Long.getLong("library.slowlog.thresholdMillis", 100));
+    private static final String FILE_PATTERN = System.getProperty("library.slowlog.file",
+            "%t/library-slow-query.%g.log");
+    private static final int FILE_LIMIT_BYTES = Integer.getInteger("library.slowlog.limitBytes", 10_000_000);
+    private static final int FILE_COUNT = Integer.getInteger("library.slowlog.count", 5);
+    private static final Set<String> EXPLAIN = new HashSet<>(
+            Arrays.asList(System.getProperty("library.slowlog.explain", "").split("\\s*,\\s*")));
+
+    // Longest bind value written to the log before it is cut short
+    private static final int MAX_BIND_LENGTH = 64;
+
+    private static final Logger LOG = Logger.getLogger("library.slowquery");
+    private static final Map<String, Totals> TOTALS = new ConcurrentHashMap<>();
+    private static volatile boolean logOpened;
+
+    private QueryLog() {
+    }
+
+    // Wrap a prepared statement so that its executions are timed under the query ID
+    public static PreparedStatement trace(String queryId, String sql, PreparedStatement stmt) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new TracedStatement(queryId, sql, stmt));
+    }
+
+    // Summarise executions, rows and time per query
+    public static String getStats() {
+        StringBuilder output = new StringBuilder("Query Log:");
+        if (TOTALS.isEmpty()) {
+            output.append("\n\t(No queries executed)");
+        }
+        TOTALS.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> output.append("\n\t").append(entry.getKey()).append(": ")
+                        .append(entry.getValue()));
+        if (THRESHOLD_NANOS >= 0) {
+            output.append("\n\tSlow queries over ").append(TimeUnit.NANOSECONDS.toMillis(THRESHOLD_NANOS))
+                    .append(" ms are logged to ").append(FILE_PATTERN);
+        }
+        return output.toString();
+    }
+
+    // Open the log file on the first slow query, so a quiet run leaves no files behind
+    private static synchronized void openLog() {
+        if (logOpened) {
+            return;
+        }
+        logOpened = true;
+        LOG.setUseParentHandlers(false);
+        try {
+            FileHandler handler = new FileHandler(FILE_PATTERN, FILE_LIMIT_BYTES, FILE_COUNT, true);
+            handler.setFormatter(new LineFormatter());
+            LOG.addHandler(handler);
+        } catch (IOException e) {
+            System.err.println("Could not open slow query log " + FILE_PATTERN + ": " + e.getMessage());
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+    }
+
+    /**
+     * Running totals for one query ID.
+     */
+    private static class Totals {
+        private final LongAdder executions = new LongAdder();
+        private final LongAdder slow = new LongAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder executeNanos = new LongAdder();
+        private final LongAdder fetchNanos = new LongAdder();
+
+        @Override
+        public String toString() {
+            return executions.sum() + " executions, " + slow.sum() + " slow, " + rows.sum() + " rows, "
+                    + millis(executeNanos.sum()) + " executing, " + millis(fetchNanos.sum()) + " fetching";
+        }
+    }
+
+    /**
+     * One slow query log entry per line, with any plan indented beneath it.
+     */
+    private static class LineFormatter extends Formatter {
+        @Override
+        public String format(LogRecord record) {
+            return Instant.ofEpochMilli(record.getMillis()) + " " + record.getMessage() + System.lineSeparator();
+        }
+    }
+
+    /**
+     * A bind parameter set on the statement, kept so it can be logged and
+     * replayed onto an EXPLAIN.
+     */
+    private static class Bind {
+        private final Method setter;
+        private final Object[] args;
+
+        private Bind(Method setter, Object[] args) {
+            this.setter = setter;
+            this.args = args;
+        }
+
+        @Override
+        public String toString() {
+            Object value = setter.getName().equals("setNull") ? null : args[1];
+            if (value == null) {
+                return args[0] + ": NULL";
+            }
+            String text = value.toString();
+            if (text.length() > MAX_BIND_LENGTH) {
+                text = text.substring(0, MAX_BIND_LENGTH) + "...";
+            }
+            return args[0] + ": " + (value instanceof String ? "'" + text + "'" : text);
+        }
+    }
+
+    /**
+     * Times the executions of one cached statement. A query is complete once
+     * its result set is closed, or when the statement next runs if it never is.
+     */
+    private static class TracedStatement implements InvocationHandler {
+        private final String queryId;
+        private final String sql;
+        private final PreparedStatement stmt;
+        private final List<Bind> binds = new ArrayList<>();
+
+        // The execution whose result set is still open, if any
+        private Execution pending;
+
+        private TracedStatement(String queryId, String sql, PreparedStatement stmt) {
+            this.queryId = queryId;
+            this.sql = sql;
+            this.stmt = stmt;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                binds.add(new Bind(method, args));
+            } else if (name.equals("clearParameters")) {
+                binds.clear();
+            } else if (name.equals("close")) {
+                finishPending();
+            } else if (name.equals("equals")) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(proxy);
+            } else if (name.startsWith("execute") && (args == null || args.length == 0)) {
+                return execute(method);
+            }
+            return call(method, args);
+        }
+
+        // Run the statement, timing it and wrapping any result set to time the fetch
+        private Object execute(Method method) throws Throwable {
+            finishPending();
+            Execution execution = new Execution(new ArrayList<>(binds));
+            long start = System.nanoTime();
+            Object result = call(method, null);
+            execution.executeNanos = System.nanoTime() - start;
+
+            if (result instanceof ResultSet) {
+                pending = execution;
+                return Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                        new TracedResultSet((ResultSet) result, execution));
+            }
+            if (result instanceof Number) {
+                execution.rows = ((Number) result).longValue();
+            } else if (result instanceof int[]) {
+                execution.rows = Arrays.stream((int[]) result).filter(count -> count > 0).sum();
+            }
+            finish(execution);
+            return result;
+        }
+
+        private Object call(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(stmt, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void finishPending() {
+            if (pending != null) {
+                Execution execution = pending;
+                pending = null;
+                finish(execution);
+            }
+        }
+
+        // Add an execution to the totals, and log it if it was slow
+        private void finish(Execution execution) {
+            long elapsed = execution.executeNanos + execution.fetchNanos;
+            Totals totals = TOTALS.computeIfAbsent(queryId, id -> new Totals());
+            totals.executions.increment();
+            totals.rows.add(execution.rows);
+            totals.executeNanos.add(execution.executeNanos);
+            totals.fetchNanos.add(execution.fetchNanos);
+            if (THRESHOLD_NANOS < 0 || elapsed < THRESHOLD_NANOS) {
+                return;
+            }
+            totals.slow.increment();
+            openLog();
+
+            StringBuilder entry = new StringBuilder(queryId).append(" ").append(millis(elapsed))
+                    .append(" (execute ").append(millis(execution.executeNanos)).append(", fetch ")
+                    .append(millis(execution.fetchNanos)).append(") rows=").append(execution.rows)
+                    .append(" binds=").append(execution.binds)
+                    .append(" sql=").append(sql.replaceAll("\\s+", " ").trim());
+            if (EXPLAIN.contains(queryId) || EXPLAIN.contains("*")) {
+                appendPlan(entry, execution.binds);
+            }
+            LOG.log(Level.WARNING, entry.toString());
+        }
+
+        // Run the query again under EXPLAIN ANALYZE; only plain SELECTs, which change nothing and lock nothing
+        private void appendPlan(StringBuilder entry, List<Bind> binds) {
+            String normalised = sql.trim().toUpperCase(Locale.ROOT);
+            if (!normalised.startsWith("SELECT") || normalised.contains("FOR UPDATE")
+                    || normalised.contains("FOR SHARE")) {
+                return;
+            }
+            try {
+                Connection conn = stmt.getConnection();
+
+                // A failed EXPLAIN must not abort the caller's transaction
+                Savepoint savepoint = conn.getAutoCommit() ? null : conn.setSavepoint();
+                try (PreparedStatement explain = conn.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql)) {
+                    for (Bind bind : binds) {
+                        bind.setter.invoke(explain, bind.args);
+                    }
+                    try (ResultSet plan = explain.executeQuery()) {
+                        while (plan.next()) {
+                            entry.append(System.lineSeparator()).append("\t").append(plan.getString(1));
+                        }
+                    }
+                    if (savepoint != null) {
+                        conn.releaseSavepoint(savepoint);
+                    }
+                } catch (SQLException | ReflectiveOperationException e) {
+                    if (savepoint != null) {
+                        conn.rollback(savepoint);
+                    }
+                    entry.append(System.lineSeparator()).append("\tEXPLAIN failed: ").append(e.getMessage());
+                }
+            } catch (SQLException e) {
+                entry.append(System.lineSeparator()).append("\tEXPLAIN failed: ").append(e.getMessage());
+            }
+        }
+
+        /**
+         * Times spent on the result set of an execution, counting the rows read.
+         */
+        private class TracedResultSet implements InvocationHandler {
+            private final ResultSet rs;
+            private final Execution execution;
+
+            private TracedResultSet(ResultSet rs, Execution execution) {
+                this.rs = rs;
+                this.execution = execution;
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "next": {
+                        long start = System.nanoTime();
+                        Object hasRow = invokeResultSet(method, args);
+                        execution.fetchNanos += System.nanoTime() - start;
+                        if (Boolean.TRUE.equals(hasRow)) {
+                            execution.rows++;
+                        }
+                        return hasRow;
+                    }
+                    case "close":
+                        try {
+                            return invokeResultSet(method, args);
+                        } finally {
+                            if (pending == execution) {
+                                finishPending();
+                            }
+                        }
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return invokeResultSet(method, args);
+                }
+            }
+
+            private Object invokeResultSet(Method method, Object[] args) throws Throwable {
+                try {
+                    return method.invoke(rs, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }
+    }
+
+    /**
+     * What one execution of a statement took.
+     */
+    private static class Execution {
+        private final List<Bind> binds;
+        private long executeNanos;
+        private long fetchNanos;
+        private long rows;
+
+        private Execution(List<Bind> binds) {
+            this.binds = binds;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated listing of records.
+ *
+ * As with Page, the next token is the key of the last record on this page and
+ * is null on the last page.
+ */
+public class RecordPage<T> {
+    private final List<T> records;
+    private final Integer nextToken;
+
+    public RecordPage(List<T> records, Integer nextToken) {
+        this.records = Collections.unmodifiableList(records);
+        this.nextToken = nextToken;
+    }
+
+    public List<T> getRecords() {
+        return records;
+    }
+
+    public Integer getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+}
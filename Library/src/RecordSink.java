@@ -0,0 +1,7 @@
+/**
+ * Receives records one at a time as a query's rows are read, so that a
+ * listing never has to be held in memory as a whole.
+ */
+public interface RecordSink<T, E extends Exception> {
+    void accept(T record) throws E;
+}
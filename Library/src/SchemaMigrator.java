@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Brings the database schema up to date from the numbered scripts in
+ * Data/migrations.
+ *
+ * A script named V<version>__<description>.sql is applied once, in version
+ * order, and recorded in schema_migrations with a SHA-256 checksum of its
+ * text. Scripts already applied are checked against their checksums, so a
+ * script edited after it shipped is reported rather than silently skipped;
+ * a change goes in a new script instead. Migrations only add to the schema,
+ * so a running older release keeps working while they apply.
+ *
+ * Each script runs in one transaction together with its history row. A
+ * script that builds or drops indexes CONCURRENTLY cannot run in a
+ * transaction, so it runs a statement at a time and is recorded once every
+ * statement has succeeded; such scripts must be safe to run again. An
+ * advisory lock keeps two instances starting at once from applying the same
+ * script twice.
+ *
+ * The checksum of each seed data file is recorded in seed_history once it
+ * has loaded. A start that finds every migration applied and its seed
+ * unchanged needs only the one query made by isCurrent().
+ */
+public class SchemaMigrator {
+    public static final String DIRECTORY = "../../Data/migrations";
+
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(\\w+)\\.sql");
+    private static final Pattern CONCURRENT = Pattern.compile(
+            "(?is)(CREATE\\s+(UNIQUE\\s+)?INDEX|DROP\\s+INDEX|REINDEX\\s+\\w+)\\s+CONCURRENTLY\\b.*");
+
+    // Arbitrary key for the advisory lock held while migrating
+    private static final long LOCK_KEY = 0x4c49425241525921L;
+    private static final long LOCK_RETRY_MILLIS = 500;
+
+    private static final String CREATE_HISTORY = "CREATE TABLE IF NOT EXISTS schema_migrations ("
+            + " version integer PRIMARY KEY,"
+            + " description text NOT NULL,"
+            + " checksum text NOT NULL,"
+            + " applied_at timestamp with time zone NOT NULL DEFAULT now(),"
+            + " execution_ms bigint NOT NULL)";
+
+    // Applied migrations as "version:checksum,...", and the checksum of a seed file as last loaded
+    private static final String CURRENT_QUERY = "SELECT"
+            + " (SELECT string_agg(version || ':' || checksum, ',' ORDER BY version)"
+            + " FROM schema_migrations) AS Applied,"
+            + " (SELECT checksum FROM seed_history WHERE name = ?) AS Seed";
+
+    private static final String UNDEFINED_TABLE = "42P01";
+
+    private final Connection conn;
+    private final Path directory;
+
+    public SchemaMigrator(Connection conn, Path directory) {
+        this.conn = conn;
+        this.directory = directory;
+    }
+
+    // Apply every script not yet applied, stopping at the first that fails
+    public MigrationReport migrate() throws IOException, SQLException {
+        List<Migration> migrations = findMigrations();
+        MigrationReport report = new MigrationReport();
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(true);
+        try (Statement stmt = conn.createStatement()) {
+            lock(stmt);
+            try {
+                stmt.execute(CREATE_HISTORY);
+                Map<Integer, String> applied = findApplied(stmt);
+                for (Migration migration : migrations) {
+                    String checksum = applied.get(migration.version);
+                    if (checksum == null) {
+                        apply(stmt, migration);
+                        report.applied.add(migration);
+                    } else if (!checksum.equals(migration.checksum)) {
+                        throw new SQLException("Migration " + migration + " has changed since it was applied;"
+                                + " put the change in a new migration instead");
+                    } else {
+                        report.current++;
+                    }
+                }
+            } finally {
+                stmt.execute("SELECT pg_advisory_unlock(" + LOCK_KEY + ")");
+            }
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        return report;
+    }
+
+    // Whether every migration is applied unchanged and the seed was last loaded with the given checksum
+    public boolean isCurrent(String seedName, String seedChecksum) throws IOException, SQLException {
+        StringBuilder expected = new StringBuilder();
+        for (Migration migration : findMigrations()) {
+            if (expected.length() > 0) {
+                expected.append(',');
+            }
+            expected.append(migration.version).append(':').append(migration.checksum);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(CURRENT_QUERY)) {
+            stmt.setString(1, seedName);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return expected.toString().equals(rs.getString("Applied"))
+                        && seedChecksum.equals(rs.getString("Seed"));
+            }
+        } catch (SQLException e) {
+            // A new database has no history tables yet
+            if (!UNDEFINED_TABLE.equals(e.getSQLState())) {
+                throw e;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+            }
+            return false;
+        }
+    }
+
+    // Note that a seed file has been loaded in full
+    public void recordSeed(String seedName, String seedChecksum) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO seed_history (name, checksum)"
+                + " VALUES (?, ?) ON CONFLICT (name) DO UPDATE SET checksum = EXCLUDED.checksum, loaded_at = now()")) {
+            stmt.setString(1, seedName);
+            stmt.setString(2, seedChecksum);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Wait for the migration lock by polling, as a session blocked inside pg_advisory_lock holds a
+    // snapshot that another instance's CREATE INDEX CONCURRENTLY would in turn wait for
+    private void lock(Statement stmt) throws SQLException {
+        while (true) {
+            try (ResultSet rs = stmt.executeQuery("SELECT pg_try_advisory_lock(" + LOCK_KEY + ")")) {
+                rs.next();
+                if (rs.getBoolean(1)) {
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(LOCK_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for another instance to migrate", e);
+            }
+        }
+    }
+
+    private Map<Integer, String> findApplied(Statement stmt) throws SQLException {
+        Map<Integer, String> applied = new HashMap<>();
+        try (ResultSet rs = stmt.executeQuery("SELECT version, checksum FROM schema_migrations")) {
+            while (rs.next()) {
+                applied.put(rs.getInt("version"), rs.getString("checksum"));
+            }
+        }
+        return applied;
+    }
+
+    // Run a script and record it, atomically unless it has to run outside a transaction
+    private void apply(Statement stmt, Migration migration) throws SQLException {
+        long start = System.nanoTime();
+        if (migration.transactional) {
+            conn.setAutoCommit(false);
+            try {
+                for (String sql : migration.statements) {
+                    stmt.execute(sql);
+                }
+                record(migration, start);
+                conn.commit();
+            } catch (SQLException e) {
+                throw LibraryUtils.rollback(conn, e);
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } else {
+            for (String sql : migration.statements) {
+                stmt.execute(sql);
+            }
+            record(migration, start);
+        }
+    }
+
+    private void record(Migration migration, long start) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO schema_migrations"
+                + " (version, description, checksum, execution_ms) VALUES (?, ?, ?, ?)")) {
+            stmt.setInt(1, migration.version);
+            stmt.setString(2, migration.description);
+            stmt.setString(3, migration.checksum);
+            stmt.setLong(4, (System.nanoTime() - start) / 1_000_000);
+            stmt.executeUpdate();
+        }
+    }
+
+    // Read the scripts in the directory, in version order
+    private List<Migration> findMigrations() throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.sql")) {
+            for (Path file : files) {
+                Matcher name = FILE_NAME.matcher(file.getFileName().toString());
+                if (!name.matches()) {
+                    throw new IOException("Migration " + file + " is not named V<version>__<description>.sql");
+                }
+                migrations.add(new Migration(Integer.parseInt(name.group(1)), name.group(2).replace('_', ' '),
+                        Files.readString(file, StandardCharsets.UTF_8)));
+            }
+        }
+        migrations.sort((a, b) -> Integer.compare(a.version, b.version));
+        for (int i = 1; i < migrations.size(); i++) {
+            if (migrations.get(i).version == migrations.get(i - 1).version) {
+                throw new IOException("Two migrations share version " + migrations.get(i).version);
+            }
+        }
+        return migrations;
+    }
+
+    // Hex SHA-256 of a script, ignoring whether lines end in CRLF or LF
+    public static String checksum(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(script.replace("\r\n", "\n").getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is always available", e);
+        }
+    }
+
+    /**
+     * One script, split into statements.
+     */
+    private static class Migration {
+        private final int version;
+        private final String description;
+        private final String checksum;
+        private final List<String> statements = new ArrayList<>();
+        private final boolean transactional;
+
+        private Migration(int version, String description, String script) throws IOException {
+            this.version = version;
+            this.description = description;
+            this.checksum = checksum(script);
+            SqlStatementReader reader = new SqlStatementReader(new StringReader(script));
+            boolean concurrent = false;
+            String sql;
+            while ((sql = reader.next()) != null) {
+                statements.add(sql);
+                concurrent |= CONCURRENT.matcher(sql).matches();
+            }
+            this.transactional = !concurrent;
+        }
+
+        @Override
+        public String toString() {
+            return "V" + version + " (" + description + ")";
+        }
+    }
+
+    /**
+     * The migrations a run applied, and how many were already in place.
+     */
+    public static class MigrationReport {
+        private final List<Migration> applied = new ArrayList<>();
+        private int current;
+
+        public int getAppliedCount() {
+            return applied.size();
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder output = new StringBuilder("Migrate Schema:");
+            for (Migration migration : applied) {
+                output.append("\n\tApplied ").append(migration);
+            }
+            output.append("\n\t").append(applied.size()).append(" applied, ").append(current)
+                    .append(" already up to date");
+            return output.toString();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads a SQL script in a single transaction.
+ *
+ * Consecutive single-row INSERTs into the same table are folded into
+ * multi-row INSERTs and sent to the server as JDBC batches, so a large seed
+ * file costs a handful of round trips and one commit rather than one of each
+ * per row. Any other statement, including an INSERT with a clause such as
+ * RETURNING or ON CONFLICT after its rows, is executed on its own, with
+ * nothing added. A statement that fails
+ * is reported and skipped without abandoning the rest of the script.
+ *
+ * A loader that skips existing rows adds ON CONFLICT DO NOTHING to each
+ * INSERT, so reloading a script that has grown adds only its new rows, and
+ * rows already present are counted as neither loaded nor failed.
+ */
+public class SqlScriptLoader {
+    private static final Pattern INSERT = Pattern.compile(
+            "(?is)INSERT\\s+INTO\\s+([\\w.\"]+)\\s*(\\([^)]*\\))?\\s*VALUES\\s*(\\(.*\\))");
+
+    // Rows folded into one INSERT statement, and rows sent per JDBC batch
+    private static final int ROWS_PER_STATEMENT = 500;
+    private static final int ROWS_PER_BATCH = 5000;
+
+    private final Connection conn;
+    private final String insertSuffix;
+    private final List<PendingRow> pending = new ArrayList<>();
+    private LoadReport report;
+
+    public SqlScriptLoader(Connection conn) {
+        this(conn, false);
+    }
+
+    public SqlScriptLoader(Connection conn, boolean skipExisting) {
+        this.conn = conn;
+        this.insertSuffix = skipExisting ? " ON CONFLICT DO NOTHING" : "";
+    }
+
+    // Load every statement from the script and commit once at the end
+    public LoadReport load(Reader script) throws IOException, SQLException {
+        report = new LoadReport();
+        long start = System.nanoTime();
+        SqlStatementReader statements = new SqlStatementReader(new BufferedReader(script));
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (Statement stmt = conn.createStatement()) {
+            String sql;
+            while ((sql = statements.next()) != null) {
+                Matcher insert = INSERT.matcher(sql);
+                if (insert.matches() && isRowList(insert.group(3))) {
+                    queueRow(stmt, insert);
+                } else {
+                    flush(stmt);
+                    executeSingle(stmt, sql, null);
+                }
+            }
+            flush(stmt);
+            conn.commit();
+        } catch (IOException | SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            pending.clear();
+            conn.setAutoCommit(autoCommit);
+        }
+        report.elapsedNanos = System.nanoTime() - start;
+        return report;
+    }
+
+    // Hold an INSERT's row until a full batch has been collected
+    private void queueRow(Statement stmt, Matcher insert) throws SQLException {
+        String table = insert.group(1).replace("\"", "").toLowerCase(Locale.ROOT);
+        String columns = insert.group(2) == null ? "" : insert.group(2).replaceAll("\\s+", "");
+        pending.add(new PendingRow(table, "INSERT INTO " + insert.group(1) + columns, insert.group(3)));
+        if (pending.size() >= ROWS_PER_BATCH) {
+            flush(stmt);
+        }
+    }
+
+    // Send the queued rows as one batch of multi-row INSERTs
+    private void flush(Statement stmt) throws SQLException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<PendingRow> statementRows = new ArrayList<>();
+        List<List<PendingRow>> batches = new ArrayList<>();
+        for (PendingRow row : pending) {
+            if (!statementRows.isEmpty() && (!statementRows.get(0).head.equals(row.head)
+                    || statementRows.size() >= ROWS_PER_STATEMENT)) {
+                batches.add(statementRows);
+                statementRows = new ArrayList<>();
+            }
+            statementRows.add(row);
+        }
+        batches.add(statementRows);
+
+        Savepoint savepoint = conn.setSavepoint();
+        try {
+            for (List<PendingRow> rows : batches) {
+                stmt.addBatch(toMultiRowInsert(rows));
+            }
+            int[] counts = stmt.executeBatch();
+            conn.releaseSavepoint(savepoint);
+            for (int i = 0; i < batches.size(); i++) {
+                List<PendingRow> rows = batches.get(i);
+                report.addRows(rows.get(0).table, counts[i] == Statement.SUCCESS_NO_INFO ? rows.size() : counts[i]);
+            }
+            report.statements += pending.size();
+        } catch (SQLException e) {
+            // Fall back to one row at a time so only the offending rows are skipped
+            stmt.clearBatch();
+            conn.rollback(savepoint);
+            for (PendingRow row : pending) {
+                executeSingle(stmt, row.head + " VALUES " + row.values + insertSuffix, row.table);
+            }
+        }
+        pending.clear();
+    }
+
+    // Execute one statement, skipping it if it fails
+    private void executeSingle(Statement stmt, String sql, String table) throws SQLException {
+        Savepoint savepoint = conn.setSavepoint();
+        try {
+            stmt.execute(sql);
+            conn.releaseSavepoint(savepoint);
+            report.statements++;
+            if (table != null) {
+                report.addRows(table, stmt.getUpdateCount());
+            }
+        } catch (SQLException e) {
+            conn.rollback(savepoint);
+            report.failures++;
+            System.err.println("Skipped statement: " + e.getMessage().trim());
+        }
+    }
+
+    // Is the text after VALUES only parenthesised rows separated by commas, so nothing follows the rows
+    private static boolean isRowList(String values) {
+        int i = 0;
+        while (true) {
+            while (i < values.length() && Character.isWhitespace(values.charAt(i))) {
+                i++;
+            }
+            if (i == values.length() || values.charAt(i) != '(') {
+                return false;
+            }
+            int depth = 0;
+            do {
+                char c = values.charAt(i++);
+                if (c == '\'' || c == '"') {
+                    // Skip to the closing quote; a doubled quote is part of the text
+                    int close;
+                    while ((close = values.indexOf(c, i)) >= 0 && close + 1 < values.length()
+                            && values.charAt(close + 1) == c) {
+                        i = close + 2;
+                    }
+                    if (close < 0) {
+                        return false;
+                    }
+                    i = close + 1;
+                } else if (c == '$') {
+                    return false; // Dollar quoting is left to the server
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    depth--;
+                }
+            } while (depth > 0 && i < values.length());
+            if (depth > 0) {
+                return false;
+            }
+            while (i < values.length() && Character.isWhitespace(values.charAt(i))) {
+                i++;
+            }
+            if (i == values.length()) {
+                return true;
+            }
+            if (values.charAt(i++) != ',') {
+                return false;
+            }
+        }
+    }
+
+    private String toMultiRowInsert(List<PendingRow> rows) {
+        StringBuilder sql = new StringBuilder(rows.get(0).head).append(" VALUES ");
+        for (int i = 0; i < rows.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            sql.append(rows.get(i).values);
+        }
+        return sql.append(insertSuffix).toString();
+    }
+
+    /**
+     * A single row taken from an INSERT statement.
+     */
+    private static class PendingRow {
+        private final String table;
+        private final String head;
+        private final String values;
+
+        private PendingRow(String table, String head, String values) {
+            this.table = table;
+            this.head = head;
+            this.values = values;
+        }
+    }
+
+    /**
+     * Row counts and timing for a loaded script.
+     */
+    public static class LoadReport {
+        private final Map<String, Long> rowsByTable = new LinkedHashMap<>();
+        private int statements;
+        private int failures;
+        private long elapsedNanos;
+
+        private void addRows(String table, long rows) {
+            rowsByTable.merge(table, Math.max(rows, 0), Long::sum);
+        }
+
+        public Map<String, Long> getRowsByTable() {
+            return rowsByTable;
+        }
+
+        public int getStatements() {
+            return statements;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedNanos / 1_000_000;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder output = new StringBuilder("Load Script:");
+            for (Map.Entry<String, Long> entry : rowsByTable.entrySet()) {
+                output.append("\n\t").append(entry.getKey()).append(": ").append(entry.getValue()).append(" rows");
+            }
+            output.append("\n\t").append(statements).append(" statements executed, ").append(failures)
+                    .append(" skipped in ").append(getElapsedMillis()).append(" ms");
+            return output.toString();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits a SQL script into complete statements.
+ *
+ * Statements end at a semicolon and may span any number of lines. Semicolons
+ * inside string literals, quoted identifiers, dollar-quoted bodies and
+ * comments do not end a statement. Comments are dropped from the output.
+ */
+public class SqlStatementReader {
+    private final Reader reader;
+    private int peeked = -2;
+
+    public SqlStatementReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    // Get the next statement without its trailing semicolon, or null at end of script
+    public String next() throws IOException {
+        StringBuilder statement = new StringBuilder();
+        int c;
+        while ((c = read()) != -1) {
+            if (c == ';') {
+                if (isBlank(statement)) {
+                    statement.setLength(0);
+                    continue;
+                }
+                return statement.toString().trim();
+            } else if (c == '\'' || c == '"') {
+                readQuoted(statement, (char) c);
+            } else if (c == '-' && peek() == '-') {
+                skipLineComment();
+                statement.append('\n');
+            } else if (c == '/' && peek() == '*') {
+                skipBlockComment();
+                statement.append(' ');
+            } else if (c == '$') {
+                readDollarQuoted(statement);
+            } else {
+                statement.append((char) c);
+            }
+        }
+
+        // Final statement may be missing its semicolon
+        return isBlank(statement) ? null : statement.toString().trim();
+    }
+
+    // Copy a quoted literal or identifier, where a doubled quote is an escaped quote
+    private void readQuoted(StringBuilder statement, char quote) throws IOException {
+        statement.append(quote);
+        int c;
+        while ((c = read()) != -1) {
+            statement.append((char) c);
+            if (c == quote) {
+                if (peek() != quote) {
+                    return;
+                }
+                statement.append((char) read());
+            }
+        }
+    }
+
+    // Copy a $tag$ ... $tag$ body, or a lone $ such as a positional parameter
+    private void readDollarQuoted(StringBuilder statement) throws IOException {
+        StringBuilder tag = new StringBuilder("$");
+        int c;
+        while ((c = peek()) != -1 && (Character.isLetterOrDigit(c) || c == '_')) {
+            tag.append((char) read());
+        }
+        if (peek() != '$' || (tag.length() > 1 && Character.isDigit(tag.charAt(1)))) {
+            statement.append(tag);
+            return;
+        }
+        tag.append((char) read());
+        statement.append(tag);
+
+        // Copy until the closing tag
+        String closing = tag.toString();
+        int bodyStart = statement.length();
+        while ((c = read()) != -1) {
+            statement.append((char) c);
+            if (c == '$' && statement.length() - bodyStart >= closing.length()
+                    && statement.substring(statement.length() - closing.length()).equals(closing)) {
+                return;
+            }
+        }
+    }
+
+    // Skip to the end of a -- comment
+    private void skipLineComment() throws IOException {
+        int c;
+        while ((c = read()) != -1 && c != '\n') {
+            // Discard comment text
+        }
+    }
+
+    // Skip to the end of a /* */ comment, allowing nesting as PostgreSQL does
+    private void skipBlockComment() throws IOException {
+        read();
+        int depth = 1;
+        int c;
+        while (depth > 0 && (c = read()) != -1) {
+            if (c == '*' && peek() == '/') {
+                read();
+                depth--;
+            } else if (c == '/' && peek() == '*') {
+                read();
+                depth++;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (peeked != -2) {
+            int c = peeked;
+            peeked = -2;
+            return c;
+        }
+        return reader.read();
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = reader.read();
+        }
+        return peeked;
+    }
+
+    private static boolean isBlank(StringBuilder statement) {
+        for (int i = 0; i < statement.length(); i++) {
+            if (!Character.isWhitespace(statement.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.postgresql.PGStatement;
+
+/**
+ * Prepared statements kept open for the life of a pooled connection.
+ *
+ * Each query is registered under a named ID. The first time a connection runs
+ * a query it is prepared as a server-side prepared statement; later calls on
+ * the same connection reuse it, so the server parses and plans it once.
+ * Statements handed out by the cache belong to it and must not be closed by
+ * the caller; their result sets still should be. Every statement is traced by
+ * QueryLog.
+ */
+public class StatementCache {
+    // Statements kept per connection before the least recently used is closed
+    private static final int MAX_STATEMENTS = 64;
+
+    // SQL registered under each query ID, shared by every connection
+    private static final Map<String, String> QUERIES = new ConcurrentHashMap<>();
+    private static final Map<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= MAX_STATEMENTS) {
+                return false;
+            }
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+
+    public StatementCache(Connection conn) {
+        this.conn = conn;
+    }
+
+    // Get the cached statement for a query on a pooled connection
+    public static PreparedStatement prepare(Connection conn, String queryId, String sql) throws SQLException {
+        return conn.unwrap(StatementCache.class).prepare(queryId, sql);
+    }
+
+    // Get the statement for a query, preparing it on first use
+    public PreparedStatement prepare(String queryId, String sql) throws SQLException {
+        String registered = QUERIES.putIfAbsent(queryId, sql);
+        if (registered != null && !registered.equals(sql)) {
+            throw new IllegalArgumentException("Query ID " + queryId + " is already registered with different SQL");
+        }
+        Counter counter = COUNTERS.computeIfAbsent(queryId, id -> new Counter());
+
+        PreparedStatement stmt = statements.get(queryId);
+        if (stmt != null && !stmt.isClosed()) {
+            counter.hits.increment();
+            stmt.clearParameters();
+            return stmt;
+        }
+        counter.misses.increment();
+        stmt = conn.prepareStatement(sql);
+
+        // Use a named server-side statement from the first execution
+        stmt.unwrap(PGStatement.class).setPrepareThreshold(1);
+        stmt = QueryLog.trace(queryId, sql, stmt);
+        statements.put(queryId, stmt);
+        return stmt;
+    }
+
+    // Close every statement held for the connection
+    public void close() {
+        for (PreparedStatement stmt : statements.values()) {
+            closeQuietly(stmt);
+        }
+        statements.clear();
+    }
+
+    // Total cache hits across all connections
+    public static long getHits() {
+        long hits = 0;
+        for (Counter counter : COUNTERS.values()) {
+            hits += counter.hits.sum();
+        }
+        return hits;
+    }
+
+    // Total cache misses across all connections
+    public static long getMisses() {
+        long misses = 0;
+        for (Counter counter : COUNTERS.values()) {
+            misses += counter.misses.sum();
+        }
+        return misses;
+    }
+
+    // Summarise hits and misses per query
+    public static String getStats() {
+        StringBuilder output = new StringBuilder("Statement Cache:");
+        long hits = getHits();
+        long total = hits + getMisses();
+        output.append("\n\t").append(hits).append(" hits, ").append(total - hits).append(" misses");
+        if (total > 0) {
+            output.append(" (").append(Math.round(100.0 * hits / total)).append("% hit rate)");
+        }
+        COUNTERS.entrySet().stream().sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> output.append("\n\t\t").append(entry.getKey()).append(": ")
+                        .append(entry.getValue().hits.sum()).append(" hits, ")
+                        .append(entry.getValue().misses.sum()).append(" misses"));
+        return output.toString();
+    }
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // The connection is being discarded or the statement is already unusable
+        }
+    }
+
+    /**
+     * Hit and miss counts for one query.
+     */
+    private static class Counter {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * One entry offered by a lookup dialog as the user types: an ID, the name
+ * shown beside it and, for books, the number of copies left.
+ */
+public class Suggestion {
+    private final int id;
+    private final String label;
+    private final int available;
+
+    public Suggestion(int id, String label, int available) {
+        this.id = id;
+        this.label = label;
+        this.available = available;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    // Copies left, or -1 for entries that are not lent out
+    public int getAvailable() {
+        return available;
+    }
+
+    @Override
+    public String toString() {
+        return available < 0 ? id + ": " + label : id + ": " + label + " (" + available + " left)";
+    }
+}